@@ -2,18 +2,27 @@ package zephyropen.api;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
 
 //import zephyropen.framework.factory.Factory;
 
 // 
 // TODO: add a 'promiscuous' ability to insert net API's automatically 
-// TODO: add vectors to deal with multiple API mappings 
 //
 
 /**
  * <p/>
  * Create API's based on factory Input
  * <p/>
+ * Several API's can be registered for the same device type. The API's and
+ * prototype for each command type seen are cached in a {@link Route}, keyed
+ * by the type exactly as it arrives, so the type is only classified the
+ * first time. The cache is cleared whenever an API is added or removed.
+ * <p/>
+ * An API added with a {@link Subscription} only gets the commands from the
+ * user or device it asked for, and the route can tell the socket thread
+ * whether a packet is wanted by anyone before it is parsed.
+ * <p/>
  * Created: May 31, 2005 : 5:38:32 PM
  * 
  * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
@@ -24,10 +33,93 @@ public class ApiFactory {
 	/** framework configuration */
 	private final ZephyrOpen constants = ZephyrOpen.getReference();
 
+	/** stop caching routes for new types past this many, junk on the wire */
+	private static final int MAX_ROUTES = 256;
+
+	/** no API's for this type */
+	private static final API[] NONE = new API[0];
+
 	// holds the API's recognized by the application
-	private static Hashtable<String, API> apiTable = null;
+	private static Hashtable<String, Vector<API>> apiTable = null;
 	private static ApiFactory singleton = null;
 
+	/** the API's and prototype for each raw command type */
+	private static Hashtable<String, Route> routes = new Hashtable<String, Route>();
+
+	/** the API's that only want some of their type's commands */
+	private static Hashtable<API, Subscription> subscriptions = new Hashtable<API, Subscription>();
+
+	/** Where commands of one type go */
+	public static class Route {
+
+		private final API[] apis;
+		private final Subscription[] filters;
+		private final String[] prototype;
+
+		/** every API has a subscription, and which tags they look at */
+		private boolean filtered = true;
+		private boolean user = false;
+		private boolean deviceName = false;
+
+		private Route(API[] apis, Subscription[] filters, String[] prototype) {
+			this.apis = apis;
+			this.filters = filters;
+			this.prototype = prototype;
+
+			for (int i = 0; i < filters.length; i++) {
+				if (filters[i] == null) {
+					filtered = false;
+				} else {
+					user |= filters[i].hasUser();
+					deviceName |= filters[i].hasDeviceName();
+				}
+			}
+
+			if (apis.length == 0)
+				filtered = false;
+		}
+
+		/** @return the API's to execute commands of this type, never null */
+		public API[] getApis() {
+			return apis;
+		}
+
+		/** @return the subscription of each API, null if it takes everything */
+		public Subscription[] getFilters() {
+			return filters;
+		}
+
+		/** @return the prototype for commands of this type */
+		public String[] getPrototype() {
+			return prototype;
+		}
+
+		/** @return true if every API has a subscription, so packets may be skipped */
+		public boolean isFiltered() {
+			return filtered;
+		}
+
+		/** @return true if a subscription needs the user tag */
+		public boolean needsUser() {
+			return user;
+		}
+
+		/** @return true if a subscription needs the deviceName tag */
+		public boolean needsDeviceName() {
+			return deviceName;
+		}
+
+		/** @return true if any API wants a command with these tags */
+		public boolean accepts(String user, String deviceName) {
+
+			for (int i = 0; i < filters.length; i++)
+				if (filters[i] == null || filters[i].matches(user, deviceName))
+					return true;
+
+			return false;
+		}
+	}
+
 	public static ApiFactory getReference() {
 		if (singleton == null) 
 			singleton = new ApiFactory();
@@ -37,23 +129,61 @@ public class ApiFactory {
 
 	/** Constructs an API factory with zero parameters. */
 	private ApiFactory() {
-		apiTable = new Hashtable<String, API>();
+		apiTable = new Hashtable<String, Vector<API>>();
 	}
 
 	/**
 	 * Returns an instantiated API as specified by the command parameter. Null
-	 * if not found
+	 * if not found. If more than one is registered, the first is returned.
 	 * 
 	 * @param deviceName
 	 *            specifies which API to return
 	 */
 	public API create(String deviceName) {
 		
-		if(apiTable.isEmpty()) return null; 
+		API[] apis = getRoute(deviceName).getApis();
+		if (apis.length == 0)
+			return null;
+
+		return apis[0];
+	}
 
-		String tag = PrototypeFactory.getDeviceTypeString(deviceName);
+	/**
+	 * Look up where commands of this type go, classifying the type only the
+	 * first time it is seen
+	 * 
+	 * @param type
+	 *            is the command's type, as received
+	 * @return the API's and prototype for this type
+	 */
+	public Route getRoute(String type) {
 
-		return apiTable.get(tag);
+		Route route = routes.get(type);
+		if (route != null)
+			return route;
+
+		return createRoute(type);
+	}
+
+	/** @return a new route for the type from the current API table, cached */
+	private synchronized Route createRoute(String type) {
+
+		Vector<API> list = apiTable.get(PrototypeFactory.getDeviceTypeString(type));
+
+		API[] apis = NONE;
+		if (list != null && !list.isEmpty())
+			apis = list.toArray(new API[list.size()]);
+
+		Subscription[] filters = new Subscription[apis.length];
+		for (int i = 0; i < apis.length; i++)
+			filters[i] = subscriptions.get(apis[i]);
+
+		Route route = new Route(apis, filters, PrototypeFactory.create(type));
+
+		if (routes.size() < MAX_ROUTES)
+			routes.put(type, route);
+
+		return route;
 	}
 
 	/**
@@ -64,27 +194,76 @@ public class ApiFactory {
 		if (api == null)
 			return;
 
-		String tag = PrototypeFactory.getDeviceTypeString(api.getDeviceName());
+		add(PrototypeFactory.getDeviceTypeString(api.getDeviceName()), api);
+	}
+
+	/**
+	 * Loads the API table with an API that only wants the commands matching
+	 * the subscription
+	 */
+	public synchronized void add(API api, Subscription subscription) {
+
+		if (api == null || subscription == null)
+			return;
+
+		subscriptions.put(api, subscription);
+
+		String type = subscription.getType();
+		if (type == null)
+			type = api.getDeviceName();
 
-		apiTable.put(tag, api);
+		add(PrototypeFactory.getDeviceTypeString(type), api);
 	}
 	
 	/**
-	 * Loads the API table with API classes.
+	 * Loads the API table with API classes. An API already registered under
+	 * this tag is not added twice.
 	 */
-	public void add(String tag, API api) {
+	public synchronized void add(String tag, API api) {
 
 		if (api == null || tag == null || tag.equals(""))
 			return;
 
-		apiTable.put(tag, api);
+		Vector<API> list = apiTable.get(tag);
+		if (list == null) {
+			list = new Vector<API>();
+			apiTable.put(tag, list);
+		}
+
+		if (!list.contains(api))
+			list.add(api);
+
+		routes.clear();
 	}
 
 	/**
-	 * Remove the API from the table
+	 * Remove all the API's under this tag from the table
 	 */
-	public void remove(String apiName) {
-		apiTable.remove(apiName);
+	public synchronized void remove(String apiName) {
+
+		Vector<API> list = apiTable.remove(apiName);
+		if (list != null)
+			for (API api : list)
+				subscriptions.remove(api);
+
+		routes.clear();
+	}
+
+	/**
+	 * Remove one API from the table
+	 */
+	public synchronized void remove(API api) {
+
+		for (Enumeration<String> e = apiTable.keys(); e.hasMoreElements();) {
+			String tag = e.nextElement();
+			Vector<API> list = apiTable.get(tag);
+			list.remove(api);
+			if (list.isEmpty())
+				apiTable.remove(tag);
+		}
+
+		subscriptions.remove(api);
+		routes.clear();
 	}
 
 	/**
@@ -99,16 +278,14 @@ public class ApiFactory {
 	 */
 	public boolean containsClass(String clazzName) {
 		
-		API api = null;
-		for (Enumeration<String> e = apiTable.keys(); e.hasMoreElements();) {
-			
-			api = apiTable.get(e.nextElement());
+		for (Enumeration<Vector<API>> e = apiTable.elements(); e.hasMoreElements();) {
+			for (API api : e.nextElement()) {
 				
-			constants.info(constants.get(ZephyrOpen.user) + " :: " + api.getClass().getName(), this);
-			
-			if(clazzName.equals(api.getClass().getName()))
-				return true;
+				constants.info(constants.get(ZephyrOpen.user) + " :: " + api.getClass().getName(), this);
 			
+				if(clazzName.equals(api.getClass().getName()))
+					return true;
+			}
 		}
 		
 		// not found
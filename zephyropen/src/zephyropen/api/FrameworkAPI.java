@@ -6,6 +6,7 @@ import zephyropen.api.API;
 import zephyropen.api.ApiFactory;
 import zephyropen.api.FrameworkAPI;
 import zephyropen.command.Command;
+import zephyropen.command.CommandDispatcher;
 
 /**
  * <p>
@@ -73,6 +74,11 @@ public class FrameworkAPI implements API {
 		// if(apiFactory.containsClass(zephyropen.swing.gui.viewer.DeviceViewer.class.getName()))
 		// constants.shutdown("close command given");
 
+		/** Report the dispatch queue counters */
+		else if (command.get(ZephyrOpen.action).equals(ZephyrOpen.status)) {
+			constants.info("dropped = " + CommandDispatcher.getDropped() + " " + CommandDispatcher.toXML(), this);
+		}
+
 		/** Toggle debugging */
 		else if (command.get(ZephyrOpen.action).equals(ZephyrOpen.frameworkDebug)) {
 			if (command.get("value").equals("true"))
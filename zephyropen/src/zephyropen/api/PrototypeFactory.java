@@ -1,5 +1,7 @@
 package zephyropen.api;
 
+import java.util.Hashtable;
+
 /**
  * 
  * <p>
@@ -31,6 +33,10 @@ public class PrototypeFactory {
 
 	public static final int ELEVATION = 7;
 
+	public static final int HRV = 8;
+
+	public static final int AGGREGATE = 9;
+
 	/** Known types, names of XML tags */
 	public final static String cadence = "cadence";
 
@@ -76,6 +82,28 @@ public class PrototypeFactory {
 
 	public final static String seconds = "seconds";
 
+	/** heart rate variability, derived from the rr tags */
+	public final static String hrv = "hrv";
+
+	public final static String rmssd = "rmssd";
+
+	public final static String sdnn = "sdnn";
+
+	public final static String pnn50 = "pnn50";
+
+	public final static String meanrr = "meanrr";
+
+	public final static String lf = "lf";
+
+	public final static String hf = "hf";
+
+	public final static String lfhf = "lfhf";
+
+	/** per window summaries of another device type's fields */
+	public final static String aggregate = "aggregate";
+
+	public final static String window = "window";
+
 	public final static String elevation = "elevation";
 
 	public final static String back = "back";
@@ -111,6 +139,18 @@ public class PrototypeFactory {
 
 	public static final String[] ELEVATION_PROTOTYPE = { seat, back };
 
+	/** List the required tags for the HRV XML, lf, hf and lfhf follow once known */
+	public static final String[] HRV_PROTOTYPE = { meanrr, rmssd, sdnn, pnn50 };
+
+	/** List the required tags for the aggregate XML, the summarised type and window length */
+	public static final String[] AGGREGATE_PROTOTYPE = { ZephyrOpen.kind, window };
+
+	/** stop remembering new types past this many */
+	private static final int MAX_TYPES = 256;
+
+	/** the prototype for each type already looked up */
+	private static Hashtable<String, String[]> prototypes = new Hashtable<String, String[]>();
+
 	/** Determine the type of device this is via the naming convention */
 	public static int getDeviceType(String deviceName) {
 
@@ -142,6 +182,12 @@ public class PrototypeFactory {
 		else if (deviceName.toLowerCase().equals(elevation))
 			return ELEVATION;
 
+		else if (deviceName.equals(hrv))
+			return HRV;
+
+		else if (deviceName.equals(aggregate))
+			return AGGREGATE;
+
 		// error state
 		return ERROR;
 	}
@@ -169,13 +215,34 @@ public class PrototypeFactory {
 		else if (kind == ELEVATION)
 			return elevation;
 
+		else if (kind == HRV)
+			return hrv;
+
+		else if (kind == AGGREGATE)
+			return aggregate;
+
 		// error state
 		return ZephyrOpen.zephyropen;
 	}
 
-	/** @returns the associated prototype */
+	/** @returns the associated prototype, remembered for next time */
 	public static String[] create(String type) {
 
+		String[] prototype = prototypes.get(type);
+		if (prototype != null)
+			return prototype;
+
+		prototype = lookup(type);
+
+		if (prototypes.size() < MAX_TYPES)
+			prototypes.put(type, prototype);
+
+		return prototype;
+	}
+
+	/** @returns the associated prototype */
+	private static String[] lookup(String type) {
+
 		// manage know cases here
 		if (type.equals(ZephyrOpen.launch))
 			return LAUNCH_PROTOTYPE;
@@ -204,6 +271,12 @@ public class PrototypeFactory {
 		else if (kind == ELEVATION)
 			return ELEVATION_PROTOTYPE;
 
+		else if (kind == HRV)
+			return HRV_PROTOTYPE;
+
+		else if (kind == AGGREGATE)
+			return AGGREGATE_PROTOTYPE;
+
 		return DEFAULT_PROTOTYPE;
 	}
 }
@@ -0,0 +1,88 @@
+package zephyropen.api;
+
+import zephyropen.command.Command;
+
+/**
+ * What an API wants to receive: a device type, and optionally only commands
+ * from one user or one device. A null field matches anything.
+ * <p>
+ * Register with {@link ApiFactory#add(API, Subscription)}. Received packets
+ * that no subscription in the process matches are dropped before they are
+ * parsed.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class Subscription {
+
+	private final String type;
+	private final String user;
+	private final String deviceName;
+
+	/**
+	 * @param type
+	 *            of device, as in {@link PrototypeFactory}, or null for the
+	 *            API's own device type
+	 * @param user
+	 *            the 'user' tag must equal, or null for any user
+	 * @param deviceName
+	 *            the 'deviceName' tag must equal, or null for any device
+	 */
+	public Subscription(String type, String user, String deviceName) {
+		this.type = type;
+		this.user = user;
+		this.deviceName = deviceName;
+	}
+
+	/** @return the device type, or null */
+	public String getType() {
+		return type;
+	}
+
+	/** @return the user, or null */
+	public String getUser() {
+		return user;
+	}
+
+	/** @return the device name, or null */
+	public String getDeviceName() {
+		return deviceName;
+	}
+
+	/** @return true if this subscription looks at the user tag */
+	public boolean hasUser() {
+		return user != null;
+	}
+
+	/** @return true if this subscription looks at the deviceName tag */
+	public boolean hasDeviceName() {
+		return deviceName != null;
+	}
+
+	/**
+	 * @param user
+	 *            from the command, null if it has none
+	 * @param deviceName
+	 *            from the command, null if it has none
+	 * @return true if a command with these tags is wanted
+	 */
+	public boolean matches(String user, String deviceName) {
+
+		if (this.user != null && !this.user.equals(user))
+			return false;
+
+		if (this.deviceName != null && !this.deviceName.equals(deviceName))
+			return false;
+
+		return true;
+	}
+
+	/** @return true if the command is wanted */
+	public boolean matches(Command command) {
+		return matches(command.get(ZephyrOpen.user), command.get(ZephyrOpen.deviceName));
+	}
+
+	@Override
+	public String toString() {
+		return "type=" + type + " user=" + user + " deviceName=" + deviceName;
+	}
+}
@@ -42,6 +42,8 @@ public class ZephyrOpen {
 	public static final String timestamp = "timestamp";
 	public static final String frameworkVersion = "frameworkVersion";
 	public static final String networkService = "networkService";
+	public static final String parser = "parser";
+	public static final String wireFormat = "wireFormat";
 	public static final String externalLookup = "externalLookup";
 	public static final String externalAddress = "wan";
 	public static final String port = "port";
@@ -51,6 +53,22 @@ public class ZephyrOpen {
 	public static final String frameworkDebug = "frameworkDebug";
 	public static final String loopback = "loopback";
 	public static final String multicast = "multicast";
+	public static final String selector = "selector";
+	public static final String groups = "groups";
+	public static final String oscPort = "oscPort";
+	public static final String networkInterface = "networkInterface";
+	public static final String batch = "batch";
+	public static final String batchSize = "batchSize";
+	public static final String batchDelay = "batchDelay";
+	public static final String asyncDispatch = "asyncDispatch";
+	public static final String dispatchQueue = "dispatchQueue";
+	public static final String dispatchPolicy = "dispatchPolicy";
+	public static final String statsOverlay = "statsOverlay";
+	public static final String aggregateWindow = "aggregateWindow";
+	public static final String aggregateSlide = "aggregateSlide";
+	public static final String aggregateTypes = "aggregateTypes";
+	public static final String deviceList = "deviceList";
+
 	public static final String displayRecords = "displayRecords";
 	public static final String discovery = "discovery";
 	public static final String services = "services";
@@ -105,6 +123,9 @@ public class ZephyrOpen {
 	/** properties object to hold configuration */
 	private Properties props = new Properties();
 
+	/** bumped on every change to the properties, so caches of them know to refresh */
+	private volatile int version = 0;
+
 	/** log errors in common file */
 	public static LogManager logger = null;
 
@@ -292,6 +313,7 @@ public class ZephyrOpen {
 			info("framework parsed config file [" + filepath + "]");
 			props.load(propFile);
 			propFile.close();
+			version++;
 
 			// now be sure no white space is in any properties!
 			Enumeration<Object> keys = props.keys();
@@ -354,9 +376,16 @@ public class ZephyrOpen {
 		return str;
 	}
 
-	public void delete(String key) {
+	public synchronized void delete(String key) {
 		if(props.contains(key))
 			props.remove(key);
+		
+		version++;
+	}
+	
+	/** @return a number that changes whenever a property is put or deleted */
+	public int getVersion() {
+		return version;
 	}
 	
 	/**
@@ -377,6 +406,7 @@ public class ZephyrOpen {
 		//		System.out.println(".... refreshing property for: " + key + " = " + value);
 
 		props.put(key.trim(), value.trim());
+		version++;
 	}
 
 	public  void put(String tag, boolean b) {
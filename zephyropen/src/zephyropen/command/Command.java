@@ -1,7 +1,13 @@
 package zephyropen.command;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import zephyropen.api.API;
 import zephyropen.api.ZephyrOpen;
@@ -28,6 +34,10 @@ import zephyropen.socket.OutputChannel;
  * Both <code>load</code> and <code>filename</code> are considered command
  * elements.
  * <p>
+ * Elements named in the {@link PrototypeFactory} prototype for the command's
+ * type are kept in an array, in prototype order, any other tags (user,
+ * timestamp, rr0..) go into a small map that is only created when needed.
+ * <p>
  * Created: 2002.09.08
  * 
  * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
@@ -38,6 +48,8 @@ public class Command {
 
 	private static final int LENGTH = 1024;
 
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private static ZephyrOpen constants = ZephyrOpen.getReference();
 
 	//private static OutputChannel outputChannel = null;
@@ -45,9 +57,17 @@ public class Command {
 	/** holds the outer most tags, not part of the command */
 	private String type = null;
 
-	/** the command holds each element in the command */
-	private Hashtable<String, String> command = null;
+	/** the tags for this type, each has a slot in values */
+	private String[] prototype = null;
+
+	/** the values of the prototype tags, null if not set */
+	private String[] values = null;
+
+	/** how many of the prototype slots are set */
+	private int slots = 0;
 
+	/** any tags not in the prototype, created on first use */
+	private HashMap<String, String> extra = null;
 
 	/**
 	 * Construct a Command of tag, value pairs nested in a 'type' tag 
@@ -56,29 +76,73 @@ public class Command {
 	 */
 	public Command(String str) {
 
-		if (str == null)
-			return;
-
-		if (str.equals(""))
+		if (str == null || str.equals("")) {
+			setPrototype(PrototypeFactory.DEFAULT_PROTOTYPE);
 			return;
+		}
 
 		type = str;
-		command = new Hashtable<String, String>();
+		setPrototype(PrototypeFactory.create(type));
+	}
+
+	/** Create a copy of the given command, changes to one don't show in the other */
+	public Command(Command command) {
+
+		type = command.type;
+		prototype = command.prototype;
+		values = command.values.clone();
+		slots = command.slots;
+
+		if (command.extra != null)
+			extra = new HashMap<String, String>(command.extra);
 	}
 
 	/** Create a command with the default tag name */
 	public Command() {
 
 		type = ZephyrOpen.zephyropen;
-		command = new Hashtable<String, String>();
+		setPrototype(PrototypeFactory.create(type));
 		
 		// add a time stamp on creation
 		// command.add(ZephyrOpen.TIME_MS, String.valueOf(System.currentTimeMillis()));
 	}
 
+	/** use the given tags for the array slots, all values are cleared */
+	private void setPrototype(String[] tags) {
+		prototype = tags;
+		values = new String[tags.length];
+		slots = 0;
+	}
+
+	/** @return the slot for this tag, or -1 if not part of the prototype */
+	private int slot(String key) {
+
+		/** the tags are nearly always the same constants as the prototype */
+		for (int i = 0; i < prototype.length; i++)
+			if (prototype[i] == key)
+				return i;
+
+		for (int i = 0; i < prototype.length; i++)
+			if (prototype[i].equals(key))
+				return i;
+
+		return -1;
+	}
+
 	/** @return the element, specified by the key, from the command */
 	public String get(String key) {
-		return command.get(key);
+
+		if (key == null)
+			return null;
+
+		int index = slot(key);
+		if (index >= 0)
+			return values[index];
+
+		if (extra == null)
+			return null;
+
+		return extra.get(key);
 	}
 
 	/**
@@ -90,16 +154,43 @@ public class Command {
 		return type;
 	}
 
-	/** Set the type field */
+	/** Set the type field, the elements are moved to the new type's slots */
 	public void setType(String type) {
+
+		String[] tags = prototype;
+		String[] old = values;
+		HashMap<String, String> others = extra;
+
 		this.type = type;
+		setPrototype(type == null ? PrototypeFactory.DEFAULT_PROTOTYPE : PrototypeFactory.create(type));
+		extra = null;
+
+		for (int i = 0; i < tags.length; i++)
+			if (old[i] != null)
+				add(tags[i], old[i]);
+
+		if (others != null)
+			for (Map.Entry<String, String> entry : others.entrySet())
+				add(entry.getKey(), entry.getValue());
 	}
 	
 	/**
 	 * Deletes the element, specified by the key, from the command.
 	 */
 	public void delete(String key) {
-		command.remove(key);
+
+		if (key == null)
+			return;
+
+		int index = slot(key);
+		if (index >= 0) {
+			if (values[index] != null) {
+				values[index] = null;
+				slots--;
+			}
+		} else if (extra != null) {
+			extra.remove(key);
+		}
 	}
 
 	/**
@@ -133,31 +224,54 @@ public class Command {
 		}
 
 		/** put the key/element pair into the command */
-		try {
+		int index = slot(key);
+		if (index >= 0) {
+
+			if (values[index] == null)
+				slots++;
+
+			values[index] = element;
 
-			command.put(key, element);
+		} else {
 
-		} catch (Exception e) {
-			constants.info("null in command?", this);
-			e.printStackTrace();
+			if (extra == null)
+				extra = new HashMap<String, String>();
+
+			extra.put(key, element);
 		}
 	}
 
 	/** @return true if the command contains no elements, else false. */
 	public boolean isEmpty() {
-		return command.isEmpty();
+		return size() == 0;
+	}
+
+	/** @return the keys of each element in the command, prototype tags first */
+	public Enumeration<String> keys() {
+		return new Keys();
 	}
 
 	/** @return how many elements are in the command. */
 	public int size() {
-		return command.size();
+
+		if (extra == null)
+			return slots;
+
+		return slots + extra.size();
 	}
 
 	/**
 	 * Flushes the command of all elements.
 	 */
 	public void flush() {
-		command.clear();
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = null;
+
+		slots = 0;
+
+		if (extra != null)
+			extra.clear();
 	}
 
 	/**
@@ -169,21 +283,22 @@ public class Command {
 	public String toXML() {
 
 		/** allocate a string buffer */
-		StringBuffer buffer = new StringBuffer(LENGTH);
+		StringBuilder buffer = new StringBuilder(LENGTH);
 
 		/** nested in 'type' tag */
-		buffer.append("<" + type + ">");
+		buffer.append('<').append(type).append('>');
 
 		/** assemble the name/value pairs */
-		for (Enumeration<String> e = command.keys(); e.hasMoreElements();) {
-			String element = e.nextElement();
-			buffer.append("<" + element + ">");
-			buffer.append(get(element));
-			buffer.append("</" + element + ">");
-		}
+		for (int i = 0; i < values.length; i++)
+			if (values[i] != null)
+				appendElement(buffer, prototype[i], values[i]);
+
+		if (extra != null)
+			for (Map.Entry<String, String> entry : extra.entrySet())
+				appendElement(buffer, entry.getKey(), entry.getValue());
 
 		/** outer nested tag */
-		buffer.append("</" + type + ">");
+		buffer.append("</").append(type).append('>');
 
 		/** check for string buffer overflow */
 		if (constants.getBoolean(ZephyrOpen.frameworkDebug))
@@ -197,6 +312,85 @@ public class Command {
 		return buffer.toString();
 	}
 
+	/** add one &lt;tag&gt;value&lt;/tag&gt; element */
+	private static void appendElement(StringBuilder buffer, String tag, String value) {
+		buffer.append('<').append(tag).append('>');
+		buffer.append(value);
+		buffer.append("</").append(tag).append('>');
+	}
+
+	/**
+	 * Write the same xml as {@link #toXML()} straight into the buffer as utf-8,
+	 * starting at the buffer's position, without building a string first.
+	 * 
+	 * @param buffer
+	 *            to write into
+	 * @return false if the command does not fit in the buffer, the buffer is
+	 *         left at its starting position
+	 */
+	public boolean writeXML(ByteBuffer buffer) {
+
+		final int start = buffer.position();
+
+		try {
+
+			/** nested in 'type' tag */
+			buffer.put((byte) '<');
+			putText(buffer, type);
+			buffer.put((byte) '>');
+
+			/** the name/value pairs */
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != null)
+					putElement(buffer, prototype[i], values[i]);
+
+			if (extra != null)
+				for (Map.Entry<String, String> entry : extra.entrySet())
+					putElement(buffer, entry.getKey(), entry.getValue());
+
+			/** outer nested tag */
+			buffer.put((byte) '<').put((byte) '/');
+			putText(buffer, type);
+			buffer.put((byte) '>');
+
+		} catch (BufferOverflowException e) {
+			buffer.position(start);
+			return false;
+		}
+
+		return true;
+	}
+
+	/** write one &lt;tag&gt;value&lt;/tag&gt; element */
+	private static void putElement(ByteBuffer buffer, String tag, String value) {
+
+		buffer.put((byte) '<');
+		putText(buffer, tag);
+		buffer.put((byte) '>');
+
+		putText(buffer, value);
+
+		buffer.put((byte) '<').put((byte) '/');
+		putText(buffer, tag);
+		buffer.put((byte) '>');
+	}
+
+	/** write the text as utf-8, plain ascii is copied a char at a time */
+	private static void putText(ByteBuffer buffer, String text) {
+
+		final int length = text.length();
+		for (int i = 0; i < length; i++) {
+
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				buffer.put(text.substring(i).getBytes(UTF8));
+				return;
+			}
+
+			buffer.put((byte) c);
+		}
+	}
+
 	/**
 	 * Returns the contents of this command as an xml string without any
 	 * whitespace
@@ -214,7 +408,21 @@ public class Command {
 	 * @return a string formated for a new hashTable
 	 */
 	public String list() {
-		return command.toString();
+
+		StringBuffer buffer = new StringBuffer(LENGTH);
+		buffer.append('{');
+
+		for (Enumeration<String> e = keys(); e.hasMoreElements();) {
+			String key = e.nextElement();
+			buffer.append(key);
+			buffer.append('=');
+			buffer.append(get(key));
+			if (e.hasMoreElements())
+				buffer.append(", ");
+		}
+
+		buffer.append('}');
+		return buffer.toString();
 	}
 
 	/**
@@ -236,8 +444,8 @@ public class Command {
 		// add time stamp
 		buffer.append(System.currentTimeMillis());
 
-		// get this API's command prototype to test against this command
-		String[] commandPrototype = PrototypeFactory.create(type);
+		// the prototype for this command's type
+		String[] commandPrototype = prototype;
 		
 		// index into the prototype
 		int index = 0;
@@ -245,7 +453,7 @@ public class Command {
 
 			// write the values in prototype order
 			buffer.append(", ");
-			buffer.append(command.get(commandPrototype[index]));
+			buffer.append(get(commandPrototype[index]));
 
 		}
 		return buffer.toString();
@@ -267,7 +475,7 @@ public class Command {
 		for (; index < commandPrototype.length; index++) {
 
 			// write the values in prototype order
-			buffer.append(command.get(commandPrototype[index]));
+			buffer.append(get(commandPrototype[index]));
 			buffer.append(", ");
 		}
 		return buffer.toString();
@@ -291,7 +499,7 @@ public class Command {
 	 * @return true if the specified command is not well formed
 	 */
 	public boolean isMalformedCommand(API api) {
-		return isMalformedCommand(PrototypeFactory.create(type));
+		return isMalformedCommand(prototype);
 	}
 
 	/**
@@ -303,22 +511,26 @@ public class Command {
 
 		// TODO: empty prototype is not an error, yet.. next version maybe ?
 		if (commandPrototype == null) {
-			constants.error("Command.isMalformedCommand(), null prototype : " + command.toString(), this);
+			constants.error("Command.isMalformedCommand(), null prototype : " + list(), this);
 			return false;
 		}
 
+		/** our own prototype, just count the filled slots */
+		if (commandPrototype == prototype && slots == prototype.length)
+			return false;
+
 		/** index into the prototype */
 		int index = 0;
 
 		/** ensure each prototype element is in the command */
 		for (; index < commandPrototype.length; index++) {
 
-			if (command.get(commandPrototype[index]) == null) {
+			if (get(commandPrototype[index]) == null) {
 
 				if (constants.getBoolean(ZephyrOpen.frameworkDebug)) {
 
 					/** give comprehensive error message */
-					constants.error(command.toString(), this);
+					constants.error(list(), this);
 					constants.error("command is missing the <"
 							+ commandPrototype[index] + "> tag", this);
 				}
@@ -345,4 +557,45 @@ public class Command {
 		else add(value, "false");
 		
 	}
+
+	/** Walks the set prototype slots, then the extra tags */
+	private class Keys implements Enumeration<String> {
+
+		private int index = 0;
+		private Iterator<String> others = null;
+
+		Keys() {
+			skip();
+			if (extra != null)
+				others = extra.keySet().iterator();
+		}
+
+		/** move the index to the next filled slot */
+		private void skip() {
+			while (index < values.length && values[index] == null)
+				index++;
+		}
+
+		public boolean hasMoreElements() {
+
+			if (index < values.length)
+				return true;
+
+			return others != null && others.hasNext();
+		}
+
+		public String nextElement() {
+
+			if (index < values.length) {
+				String key = prototype[index++];
+				skip();
+				return key;
+			}
+
+			if (others != null)
+				return others.next();
+
+			throw new NoSuchElementException();
+		}
+	}
 }
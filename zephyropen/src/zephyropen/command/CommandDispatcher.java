@@ -1,11 +1,24 @@
 package zephyropen.command;
 
+import java.util.Enumeration;
+import java.util.Hashtable;
+
 import zephyropen.api.API;
 import zephyropen.api.ApiFactory;
+import zephyropen.api.Subscription;
+import zephyropen.api.ZephyrOpen;
 import zephyropen.command.Command;
 
 /**
  * Dispatches commands received from the server to the appropriate API for execution.
+ * <p>
+ * With <code>asyncDispatch=true</code> each API gets its own
+ * {@link DispatchQueue} and worker thread, so the socket thread only hands
+ * the command over. <code>dispatchQueue</code> sets the ring size and
+ * <code>dispatchPolicy</code> what happens when it is full: dropOldest (the
+ * default), dropNewest or block. API's may change the commands they are given,
+ * so when more than one API takes a command each queue gets its own copy,
+ * rather than two worker threads sharing one.
  * 
  * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
  * 
@@ -14,6 +27,10 @@ public final class CommandDispatcher {
 
 	/** framework configuration */
 	private static ApiFactory apiFactory = ApiFactory.getReference();
+	private static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	/** one queue per API when dispatching on worker threads */
+	private static Hashtable<API, DispatchQueue> queues = new Hashtable<API, DispatchQueue>();
 
 	/**
 	 * Dispatches the specified command to the appropriate API for execution.
@@ -39,20 +56,86 @@ public final class CommandDispatcher {
 			return;
 		}
 		
-		/** look up the API */
-		API api = apiFactory.create(deviceName);
+		/** look up the API's, cached by type */
+		ApiFactory.Route route = apiFactory.getRoute(deviceName);
+		API[] apis = route.getApis();
+		Subscription[] filters = route.getFilters();
 		
 		/** error check */ 
-		if (api == null){
+		if (apis.length == 0){
 			//System.err.println("api look fails for device name: " + deviceName);
 			//System.err.println("factory: " + apiFactory.toXML());
 			return;
 		}
 		
 		/** check that this is a valid command for this device */
-		if (command.isMalformedCommand(api)) return;
+		if (command.isMalformedCommand(route.getPrototype())) return;
 			
-		/** execute the command */
-		api.execute(command);
+		/** execute the command, or hand it to each API's own thread */
+		final boolean async = constants.getBoolean(ZephyrOpen.asyncDispatch);
+		for (int i = 0; i < apis.length; i++) {
+
+			/** not from the user or device this API asked for */
+			if (filters[i] != null && !filters[i].matches(command))
+				continue;
+
+			if (async)
+				getQueue(apis[i]).add(apis.length > 1 ? new Command(command) : command);
+			else
+				apis[i].execute(command);
+		}
+	}
+
+	/** @return the queue for this API, created on first use */
+	private static synchronized DispatchQueue getQueue(API api) {
+
+		DispatchQueue queue = queues.get(api);
+		if (queue == null) {
+
+			int size = constants.getInteger(ZephyrOpen.dispatchQueue);
+			if (size <= 0)
+				size = DispatchQueue.DEFAULT_SIZE;
+
+			String policy = constants.get(ZephyrOpen.dispatchPolicy);
+			if (policy == null)
+				policy = DispatchQueue.dropOldest;
+
+			queue = new DispatchQueue(api, size, policy);
+			queues.put(api, queue);
+		}
+
+		return queue;
+	}
+
+	/** @return the commands dropped by all the queues */
+	public static long getDropped() {
+
+		long dropped = 0;
+		for (Enumeration<DispatchQueue> e = queues.elements(); e.hasMoreElements();)
+			dropped += e.nextElement().getDropped();
+
+		return dropped;
+	}
+
+	/** @return the commands waiting in all the queues */
+	public static int getDepth() {
+
+		int depth = 0;
+		for (Enumeration<DispatchQueue> e = queues.elements(); e.hasMoreElements();)
+			depth += e.nextElement().getDepth();
+
+		return depth;
+	}
+
+	/** @return the counters of every queue as xml */
+	public static String toXML() {
+
+		StringBuffer buffer = new StringBuffer();
+		buffer.append("<dispatch>");
+		for (Enumeration<DispatchQueue> e = queues.elements(); e.hasMoreElements();)
+			buffer.append(e.nextElement().toXML());
+		buffer.append("</dispatch>");
+
+		return buffer.toString();
 	}
 }
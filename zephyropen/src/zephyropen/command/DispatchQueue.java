@@ -0,0 +1,174 @@
+package zephyropen.command;
+
+import zephyropen.api.API;
+import zephyropen.api.ZephyrOpen;
+
+/**
+ * A bounded ring of commands waiting for one API, and the worker thread that
+ * executes them.
+ * <p>
+ * The socket thread only has to drop the command into the ring, so a slow
+ * API (swing, disk) no longer stops the socket being drained. When the ring
+ * is full the policy decides: drop the oldest waiting command, drop the new
+ * one, or block the socket thread until there is room. Every dropped command
+ * is counted.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class DispatchQueue implements Runnable {
+
+	/** the 'dispatchPolicy' property values */
+	public static final String dropOldest = "dropOldest";
+	public static final String dropNewest = "dropNewest";
+	public static final String block = "block";
+
+	/** default ring size */
+	public static final int DEFAULT_SIZE = 256;
+
+	private static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	private final API api;
+	private final String policy;
+	private final Command[] ring;
+
+	/** index of the oldest command, and how many are waiting */
+	private int head = 0;
+	private int count = 0;
+
+	private long dispatched = 0;
+	private long dropped = 0;
+	private int maxDepth = 0;
+
+	/**
+	 * Create the queue and start its worker thread
+	 *
+	 * @param api
+	 *            to execute the commands
+	 * @param size
+	 *            of the ring
+	 * @param policy
+	 *            one of dropOldest, dropNewest or block
+	 */
+	public DispatchQueue(API api, int size, String policy) {
+
+		this.api = api;
+		this.policy = policy;
+		ring = new Command[size];
+
+		Thread worker = new Thread(this, "dispatch " + api.getDeviceName());
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Hand the command to the worker thread
+	 *
+	 * @param command
+	 *            to execute, must not be changed by the caller afterwards
+	 */
+	public synchronized void add(Command command) {
+
+		if (count == ring.length) {
+
+			if (policy.equals(block)) {
+
+				while (count == ring.length) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						dropped++;
+						return;
+					}
+				}
+
+			} else if (policy.equals(dropNewest)) {
+
+				dropped++;
+				return;
+
+			} else {
+
+				/** drop the oldest */
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+				count--;
+				dropped++;
+			}
+		}
+
+		ring[(head + count) % ring.length] = command;
+		count++;
+
+		if (count > maxDepth)
+			maxDepth = count;
+
+		notifyAll();
+	}
+
+	/** @return the next command, waits until there is one */
+	private synchronized Command take() throws InterruptedException {
+
+		while (count == 0)
+			wait();
+
+		Command command = ring[head];
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		count--;
+		dispatched++;
+
+		/** wake a blocked socket thread */
+		notifyAll();
+		return command;
+	}
+
+	/** execute commands as they arrive */
+	public void run() {
+		try {
+			while (true) {
+
+				Command command = take();
+
+				try {
+					api.execute(command);
+				} catch (Exception e) {
+					constants.error("execute failed: " + e.getMessage(), this);
+				}
+			}
+		} catch (InterruptedException e) {
+			constants.error("dispatch thread stopped: " + api.getDeviceName(), this);
+		}
+	}
+
+	/** @return the API this queue feeds */
+	public API getApi() {
+		return api;
+	}
+
+	/** @return how many commands were dropped because the ring was full */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/** @return how many commands were handed to the API */
+	public synchronized long getDispatched() {
+		return dispatched;
+	}
+
+	/** @return how many commands are waiting */
+	public synchronized int getDepth() {
+		return count;
+	}
+
+	/** @return the most commands that have been waiting at once */
+	public synchronized int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/** @return the counters as an xml fragment */
+	public synchronized String toXML() {
+		return "<" + api.getDeviceName() + "><dispatched>" + dispatched + "</dispatched><dropped>" + dropped
+				+ "</dropped><depth>" + count + "</depth><maxDepth>" + maxDepth + "</maxDepth></"
+				+ api.getDeviceName() + ">";
+	}
+}
@@ -23,8 +23,12 @@ public class DeviceFactory {
 
 	/** the device details must be in the framework */
 	public static Device create() {
+		return create(constants.get(ZephyrOpen.deviceName));
+	}
+
+	/** create the named device, com port devices still take the port from the framework */
+	public static Device create(String deviceName) {
 	
-		String deviceName = constants.get(ZephyrOpen.deviceName);
 		int type = PrototypeFactory.getDeviceType(deviceName);
 		
 		constants.info("DeviceFactory.create(" + deviceName + ")");
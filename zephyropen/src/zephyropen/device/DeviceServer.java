@@ -14,6 +14,10 @@ import zephyropen.util.Utils;
  * stream is lost, it is up to the daemon services to start new server processes to
  * maintain the connection.
  * <p>
+ * With a comma separated <code>deviceList</code> in the properties, one server hosts
+ * all of them, each read on its own thread and reconnected on its own, sharing the
+ * framework's output channel and one watch dog.
+ * <p>
  * http://www.zephyrtech.co.nz/
  * 
  * 
@@ -27,66 +31,112 @@ public class DeviceServer {
     /** time to sleep while in watch dog thread */
     public final static int SPIN_TIME = 1000;
 
-    /** the device to read from */
-    private Device device = null;
-    
-    /** track attempts */
-    private int i = 0; 
+    /** time to wait before trying a failed connection again */
+    public final static int RETRY_TIME = 30000;
+
+    /** bluetooth searches can't overlap, connect one device at a time */
+    private static final Object connecting = new Object();
+
+    /** keeps one device connected, reconnecting when it times out */
+    private static class Connection implements Runnable {
+
+    	/** the device to read from */
+    	private final String deviceName;
+
+    	/** track attempts */
+    	private int i = 0;
+
+    	Connection(String deviceName) {
+    		this.deviceName = deviceName;
+    	}
+
+    	public void run() {
+
+    		// do until stopped with signal ^C
+    		while(true){
+
+    			Device device = DeviceFactory.create(deviceName);
+    			if (device == null) {
+    				constants.error("Can't create device [" + deviceName + "], terminate.", this);
+    				return;
+    			}
+
+    			boolean connected = false;
+    			synchronized (connecting) {
+    				connected = device.connect();
+    			}
+
+    			if (connected) {
+
+    				// blocking call
+    				device.readDevice();
+    				WatchDog.unwatch(device);
+
+    			} else {
+    				constants.info("can't connect [" + i++ + "]: " + deviceName, this);
+    				Utils.delay(RETRY_TIME);
+    			}
+    		}
+    	}
+    }
 
     /**
      * <p>
      * Constructor for the DeviceServer. Use a factory to create a server for the specific
      * device based only on the naming convention from the manufacturing company.
-     * 
+     *
      */
     public DeviceServer() {
-    
-        // do until stopped with signal ^C
-        while(true){
-	       
-            device = DeviceFactory.create();
-            if (device == null) {
-                constants.error("Can't create device, terminate.", this);
-                return;
-            }
-        	
-        	if (device.connect()) {
-	        	
-	            // blocking call
-	            device.readDevice();
-	            
-	        } else {
-	            constants.info("can't connect [" + i++ + "]: " + device.getDeviceName(), this);
-	            Utils.delay(30000);
-	        }
-        }   
+    	new Connection(constants.get(ZephyrOpen.deviceName)).run();
     }
-    
+
+    /**
+     * Serve many devices from this process, each on its own thread
+     *
+     * @param deviceNames
+     *            the bluetooth names of the devices
+     */
+    public DeviceServer(String[] deviceNames) {
+    	for (int i = 0; i < deviceNames.length; i++) {
+
+    		String name = deviceNames[i].trim();
+    		if (name.length() == 0)
+    			continue;
+
+    		new Thread(new Connection(name), name).start();
+    	}
+    }
+
     /*
      * Use command line arguments to configure the framework with given properties file
-     * 
+     *
      * {@code java DeviceServer polar.propetries} {@code java Server zephyr.properties}
+     * {@code java DeviceServer brad gateway "HXM012345,BH ZBH001354"}
     */
     public static void main(String[] args) {
 
 		if(args.length==0){
-		
+
 	    constants.put(ZephyrOpen.loggingEnabled, true);
 	    constants.put(ZephyrOpen.frameworkDebug, true);
 		constants.put(ZephyrOpen.user, System.getProperty("user.name", "brad"));
 		constants.put(ZephyrOpen.deviceName, PrototypeFactory.elevation);
 		constants.init();
-		
+
+		}
+
+		if(args.length==2 || args.length==3){
+			constants.init(args[0], args[1]);
 		}
-		
-		if(args.length==2){
-			constants.init(args[0], args[1]);			
+
+		if(args.length==3){
+			constants.put(ZephyrOpen.deviceList, args[2]);
 		}
-		
 
-		new DeviceServer();
-    
-    
-     
-    } 
+		String list = constants.get(ZephyrOpen.deviceList);
+		if (list != null)
+			new DeviceServer(list.split(","));
+		else
+			new DeviceServer();
+    }
 }
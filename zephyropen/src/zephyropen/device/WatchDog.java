@@ -1,47 +1,74 @@
 package zephyropen.device;
 
+import java.util.Vector;
+
 import zephyropen.api.ZephyrOpen;
 import zephyropen.util.Utils;
 
-/** Spin locked thread to ensure the connection to the device is active */
-public class WatchDog extends Thread implements Runnable { 		
-	
+/**
+ * Spin locked thread to ensure the connections to the devices are active.
+ * One thread watches every device in the process, a device that has sent
+ * nothing for {@link ZephyrOpen#TIME_OUT} is closed and forgotten.
+ */
+public class WatchDog extends Thread implements Runnable {
+
 	/** framework configuration */
-	private ZephyrOpen constants = ZephyrOpen.getReference();
+	private static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	/** the one watch dog, started with the first device */
+	private static WatchDog watchDog = null;
+
+	/** devices to keep an eye on */
+	private final Vector<Device> devices = new Vector<Device>();
 
-	/** device to keep an eye on */
-	private Device device = null;
-	
 	/** constructor */
-	public WatchDog(Device dev){ 	
-		this.device = dev;
+	private WatchDog(){
+		super("watchdog");
 		this.setDaemon(true);
 	}
 
-	/*
-	public void reset(){
-		device.
-	}*/
-	
+	/** start watching the device, call once it is connected */
+	public static synchronized void watch(Device device) {
+
+		if (watchDog == null) {
+			watchDog = new WatchDog();
+			watchDog.start();
+		}
+
+		if (!watchDog.devices.contains(device))
+			watchDog.devices.add(device);
+
+		constants.info("watchdog connected: " + device.getDeviceName(), watchDog);
+	}
+
+	/** stop watching the device, eg. it has closed by itself */
+	public static synchronized void unwatch(Device device) {
+		if (watchDog != null)
+			watchDog.devices.remove(device);
+	}
+
 	/** start() call back */
 	public void run() {
-		
-		// constants.info("watchdog thread id: ", String.valueOf(this.getId()));
-		constants.info("watchdog connected: " + device.getDeviceName(), this);
-		
-		/** keep checking for input with a spin lock */ 
-		while (device.getDelta() < ZephyrOpen.TIME_OUT) 
+		while (true) {
+
 			Utils.delay(DeviceServer.SPIN_TIME);
-		
-		/** log run time */  
-		constants.info(device.getDeviceName() + ", TIMEOUT = " + ZephyrOpen.TIME_OUT, this);
-		constants.info(device.getDeviceName() + ", TIMEOUT delta = " + device.getDelta(), this);
-		
-		/** let device clean up */ 
-		//constants.info("watchdog thread id: ", this.getId());
-		constants.info("watchdog closing device: " + device.getDeviceName(), this);
-		
-		device.close();
-		//constants.shutdown();
+
+			/** keep checking for input with a spin lock */
+			Device[] list = devices.toArray(new Device[0]);
+			for (int i = 0; i < list.length; i++) {
+
+				if (list[i].getDelta() < ZephyrOpen.TIME_OUT)
+					continue;
+
+				/** log run time */
+				constants.info(list[i].getDeviceName() + ", TIMEOUT delta = " + list[i].getDelta(), this);
+
+				/** let device clean up */
+				constants.info("watchdog closing device: " + list[i].getDeviceName(), this);
+
+				devices.remove(list[i]);
+				list[i].close();
+			}
+		}
 	}
-} 
\ No newline at end of file
+}
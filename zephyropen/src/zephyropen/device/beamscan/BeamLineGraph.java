@@ -2,6 +2,7 @@ package zephyropen.device.beamscan;
 
 import zephyropen.api.ZephyrOpen;
 import zephyropen.state.State;
+import zephyropen.state.StateSnapshot;
 import zephyropen.state.TimedEntry;
 
 import com.googlecode.charts4j.Color;
@@ -43,13 +44,14 @@ public class BeamLineGraph {
 	public String getURLString(int x, int y, String title) {
         try {
         
-            Line valuesLine = Plots.newLine(DataUtil.scale(state.getScaledData()));
+            final StateSnapshot snapshot = state.snapshot();
+            Line valuesLine = Plots.newLine(DataUtil.scale(snapshot.getScaledData()));
             valuesLine.setColor(Color.BLUE);
             valuesLine.setFillAreaColor(Color.LIGHTGREY);
             
-            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 2, (state.size()/2));
-            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 2, (state.size()/4));
-            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 2, ((state.size()/2) + (state.size()/4)));
+            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 2, (snapshot.size()/2));
+            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 2, (snapshot.size()/4));
+            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 2, ((snapshot.size()/2) + (snapshot.size()/4)));
            
             LineChart chart = GCharts.newLineChart(new Line[] {valuesLine});
 
@@ -86,9 +86,18 @@ public class WiiUtils {
 	 * @return the XML command object 
 	 */
 	public static Command parseOSC(DatagramPacket packet, Command command) {
+		return parseOSC(packet.getData(), command);
+	}
+
+	/**
+	 * Fill an XML command from an OSC message 
+	 * 
+	 * @param bytes is the buffer holding a raw byte OSC message 
+	 * @param command is an XML command to be populated 
+	 * @return the XML command object 
+	 */
+	public static Command parseOSC(byte[] bytes, Command command) {
 		
-		
-		byte[] bytes = packet.getData();
 		String deviceName = getName(bytes, bytes.length);
 		
 		// default to 1 
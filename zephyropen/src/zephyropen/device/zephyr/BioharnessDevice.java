@@ -1,6 +1,8 @@
 package zephyropen.device.zephyr;
 
 import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import zephyropen.api.PrototypeFactory;
 import zephyropen.api.ZephyrOpen;
@@ -10,8 +12,6 @@ import zephyropen.device.WatchDog;
 import zephyropen.port.AbstractPort;
 import zephyropen.port.bluetooth.SearchSPP;
 //import zephyropen.port.bluetooth.SerialPortProfile;
-import zephyropen.port.bluetooth.SerialUtils;
-import zephyropen.util.Utils;
 
 /**
  * 
@@ -44,10 +44,14 @@ public class BioharnessDevice extends AbstractPort implements Device {
 	public static final int LIFE_PACKET = 3;
 	public static final int HXM_PACKET = 4;
 
-	/** allocate a byte array for receiving data from the serial port */
-	private static final int BUFFER_SIZE = 60;
-	private byte[] buffer = new byte[BUFFER_SIZE];
-	private byte[] packet = new byte[BUFFER_SIZE];
+	/** time between requests to keep the data streams on */
+	public static final long KEEP_ALIVE = 3000;
+
+	/** cuts the serial stream into packets, data and replies to our requests */
+	private final PacketFramer framer = new PacketFramer();
+
+	/** decoded readings of the last packet */
+	private final ZephyrSample sample = new ZephyrSample();
 
 	/**
 	 * @param ame
@@ -63,141 +67,93 @@ public class BioharnessDevice extends AbstractPort implements Device {
 
 	}
 
-	/** Loop on BT input */
+	/** Block on BT input, send each packet as soon as it is framed */
 	public void readDevice() {
 
+		/** connecting may have waited on other devices, time out from now */
+		last = System.currentTimeMillis();
+
 		/** sanity test if (!connected) return; */
 		ZephyrUtils.setupBioharness(port);
 		ZephyrUtils.setupBioharnessRtoR(port);
 
-    	new WatchDog(this).start();    
-		
-		short i = 0;
-		while (getDelta() < ZephyrOpen.TIME_OUT) {
+		/** the harness stops streaming if it is not asked again now and then */
+		Timer keepAlive = new Timer("bioharness keep alive", true);
+		keepAlive.schedule(new TimerTask() {
+			public void run() {
+				ZephyrUtils.setupBioharness(port);
+				ZephyrUtils.setupBioharnessRtoR(port);
+			}
+		}, KEEP_ALIVE, KEEP_ALIVE);
 
-			Utils.delay(200);
+		WatchDog.watch(this);
 
-			try {
-				packet = SerialUtils.getAvail(port, buffer, BUFFER_SIZE);
-			} catch (IOException e) {
-				constants.error(e.getMessage(), this);
-				return;
-			}
-			
-			//System.out.println("read device(): buff size: " + buffer.length);
+		try {
+			while (getDelta() < ZephyrOpen.TIME_OUT) {
+
+				try {
+					if (framer.read(port) < 0)
+						return;
+				} catch (IOException e) {
+					constants.error(e.getMessage(), this);
+					return;
+				}
 
-			if (packet != null) {
+				byte[] packet = null;
+				while ((packet = framer.next()) != null) {
 
-				/** find out what type of packet */
-				int type = (getPacketType(packet));
+					/** find out what type of packet */
+					int type = getPacketType(packet);
 
-				/** parse data, send to listening devices */
-			if (type == DATA_PACKET) {
-					
-					constants.info("data packet");
+					/** parse data, send to listening devices */
+					if (type == DATA_PACKET)
+						sample.decodeBioharness(packet);
+					else if (type == RTOR_PACKET)
+						sample.decodeBioharnessRtoR(packet);
+					else
+						continue;
 
-					command = ZephyrUtils.parseBioharnessPacket(packet, command);
-					command.send();
-					
-					//last = System.currentTimeMillis();					
-
-				
-				} else
-					
-					if( type == RTOR_PACKET ) {
-					
-					constants.info("RR packet");
-					
-					command = ZephyrUtils.parseBioharnessRtoR(packet, command);
+					/** both go out as 'bioharness', mark the R to R ones for the hrv decoder */
+					if (type == RTOR_PACKET)
+						command.add(ZephyrOpen.kind, PrototypeFactory.rr);
+					else
+						command.delete(ZephyrOpen.kind);
+
+					command = sample.toCommand(command);
 					command.send();
-					//last = System.currentTimeMillis();
-
-				} 
-					
-					//else {
-					
-//					constants.info("data packet");
-
-	//				command = ZephyrUtils.parseBioharnessPacket(packet, command);
-		//			command.send();
-				
-					
-			//	}
-
-				if (i++ % 10 == 0) {
-					ZephyrUtils.setupBioharness(port);
-					ZephyrUtils.setupBioharnessRtoR(port);
+
+					// keep track of incoming data times, replies to keep alive don't count
+					last = System.currentTimeMillis();
 				}
-			
-				//if(constants.getBoolean(ZephyrOpen.frameworkDebug)		
-				constants.info(command.toString());
-		
-				// keep track of incoming data times
-				last = System.currentTimeMillis();
 			}
+		} finally {
+			keepAlive.cancel();
 		}
 	}
 
 	/**
 	 * @param packet
-	 *            of bytes to evaluate
+	 *            of bytes to evaluate, already framed and CRC checked
 	 * @return the type of packet this is
 	 */
 	protected int getPacketType(byte[] packet) {
 
 		if (packet == null){		
-			constants.error("null packet", this);
+			ZephyrUtils.packetError("null packet", this);
 			return ERROR;
 		}
-		
-		if(packet[0] != ZephyrUtils.STX){
-			System.out.println("not start of text");
-			return ERROR;
-		}
-	
-		/*
-		if (packet[60] != ZephyrUtils.ETX) {
-			constants.error("ETC error on Bioharness", this);
-			return ERROR;
-		}*/
 
-
-		if (packet.length != 60) {
-		
-			constants.error("wrong packet size on Bioharness", this);
+		/** ACK or NAK, a reply to a setup request, not data */
+		if (framer.getTerminator() != ZephyrUtils.ETX)
 			return ERROR;
-		}
-		
-		if (ZephyrUtils.checkCRC(packet)) {
-			constants.error("CRC error on Bioharness", this);
-			return ERROR;
-		}
-
-		// This happens when two packets come in together..
-		// with ank ack from sending a keep-alive message
-
-		/*
-		 * if (packet[packet.length-1] != ACK) {
-		 * 
-		 * if (packet[packet.length - 1] != ZephyrUtils.ETX) {
-		 * 
-		 * if (packet[packet.length - 1] != NAK) { constants.error(
-		 * " invalid packet, size = " + packet.length + "\n --> " +
-		 * ZephyrUtils.bytesToHex(packet), this);
-		 * 
-		 * return ERROR; } } }
-		 */
 
 		if (packet[1] == 0x20) {
-			constants.info("data packet", this);
 			return DATA_PACKET;
 		}
 		if (packet[1] == 0x24) {
-			constants.info("r to r packet", this);
 			return RTOR_PACKET;
 		}
 		if (packet[1] == 0x23) {
-			constants.info("life packet", this);
 			return LIFE_PACKET;
 		}
 		/*
@@ -210,7 +166,7 @@ public class BioharnessDevice extends AbstractPort implements Device {
 		
 		//constants.info(SerialUtils.toString(packet, packet.length), this);
 		
-		constants.error("unkown bioharness packet type", this);
+		ZephyrUtils.packetError("unknown bioharness packet type: " + packet[1], this);
 
 		// no match found
 		return ERROR;
@@ -9,7 +9,6 @@ import zephyropen.device.Device;
 import zephyropen.device.WatchDog;
 import zephyropen.port.AbstractPort;
 import zephyropen.port.bluetooth.SearchSPP;
-import zephyropen.port.bluetooth.SerialUtils;
 
 
 /**
@@ -28,10 +27,11 @@ import zephyropen.port.bluetooth.SerialUtils;
  */
 public class HrmDevice extends AbstractPort implements Device {
 	
-	/** allocate a byte array for receiving data from the serial port */
-	private static final int BUFFER_SIZE = 60;
-	private byte[] buffer = new byte[BUFFER_SIZE];
-	private byte[] packet = new byte[BUFFER_SIZE];
+	/** cuts the serial stream into packets */
+	private final PacketFramer framer = new PacketFramer();
+
+	/** decoded readings of the last packet */
+	private final ZephyrSample sample = new ZephyrSample();
 	
 	/**
 	 * <p> Constructor for the HxM Server API
@@ -44,38 +44,39 @@ public class HrmDevice extends AbstractPort implements Device {
 
 		command = new Command(PrototypeFactory.hrm);
 		
-		command.add(ZephyrOpen.deviceName, getDeviceName());
+		command.add(ZephyrOpen.deviceName, name);
 		
 	} 
 	
-	/** loop on BT input */
+	/** Block on BT input, send each packet as soon as it is framed */
 	public void readDevice() {
 			
 		// command.add(ZephyrOpen.address, port.getAddress());
 		
-    	new WatchDog(this).start();    
+		/** connecting may have waited on other devices, time out from now */
+		last = System.currentTimeMillis();
+    	WatchDog.watch(this);    
 		
 		while (getDelta() < ZephyrOpen.TIME_OUT) {
 
 			try {
-				packet = SerialUtils.getAvail(port, buffer, BUFFER_SIZE);
+				if (framer.read(port) < 0)
+					return;
 			} catch (IOException e) {
 				return;
 			}
 
-			if (packet != null) {
+			byte[] packet = null;
+			while ((packet = framer.next()) != null) {
 
-			
-				if( ZephyrUtils.vaildHxmPacket(packet)) {
+				if (packet[1] == ZephyrUtils.HXM_ID) {
 					
-					// add speed, distance etc 
-					command = ZephyrUtils.parseHrmPacket(packet, command);
-			
-					// add RR into same packet 
-					command = ZephyrUtils.parseHxmRtoR(packet, command);
+					// heart rate, beat count and RR
+					sample.decodeHrm(packet);
+					command = sample.toCommand(command);
 					
 					/*
-					if( command.get(PrototypeFactory.battery).equals("0") ) {
+					if (sample.getCharge() == 0) {
 						
 						constants.error("HRM battery is dead?", this);
 						port.close();
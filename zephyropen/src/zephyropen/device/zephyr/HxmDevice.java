@@ -9,7 +9,6 @@ import zephyropen.device.Device;
 import zephyropen.device.WatchDog;
 import zephyropen.port.AbstractPort;
 import zephyropen.port.bluetooth.SearchSPP;
-import zephyropen.port.bluetooth.SerialUtils;
 /**
  * 
  * <p> A Basic server for the Zephyr BlueTooth HXM 
@@ -24,10 +23,11 @@ import zephyropen.port.bluetooth.SerialUtils;
  */
 public class HxmDevice extends AbstractPort implements Device {
 
-	/** allocate a byte array for receiving data from the serial port */
-	private static final int BUFFER_SIZE = 60;
-	private byte[] buffer = new byte[BUFFER_SIZE];
-	private byte[] packet = new byte[BUFFER_SIZE];
+	/** cuts the serial stream into packets */
+	private final PacketFramer framer = new PacketFramer();
+
+	/** decoded readings of the last packet */
+	private final ZephyrSample sample = new ZephyrSample();
 
 	/**
 	 * <p> Constructor for the HxM Server API
@@ -40,51 +40,52 @@ public class HxmDevice extends AbstractPort implements Device {
 		
 		command = new Command(PrototypeFactory.hxm);
 		
-		command.add(ZephyrOpen.deviceName, getDeviceName());
+		command.add(ZephyrOpen.deviceName, deviceName);
 	}
 	
-	/** Loop on BT input */
+	/** Block on BT input, send each packet as soon as it is framed */
 	public void readDevice() {
 				
 		// command.add(ZephyrOpen.address, port.getAddress());
 		
-    	new WatchDog(this).start();    
+		/** looked up once, not per packet */
+		final boolean debug = constants.getBoolean(ZephyrOpen.frameworkDebug);
+
+		/** connecting may have waited on other devices, time out from now */
+		last = System.currentTimeMillis();
+    	WatchDog.watch(this);    
 		
 		while(getDelta() < ZephyrOpen.TIME_OUT) {
 			
-			/** track arrival of data packets */
-			last = System.currentTimeMillis();
-			
 			try {
-				packet = SerialUtils.getAvail(port, buffer, BUFFER_SIZE);
+				if (framer.read(port) < 0)
+					return;
 			} catch (IOException e) {
 				return;	
 			}
 			
-			if (packet != null) {
+			byte[] packet = null;
+			while ((packet = framer.next()) != null) {
 
-				if( ZephyrUtils.vaildHxmPacket(packet)) {
+				if (packet[1] == ZephyrUtils.HXM_ID) {
 					
-					/** add heart rate, beat count */
-					command = ZephyrUtils.parseHrmPacket(packet, command);
-					
-					/** add speed, distance etc */
-					command = ZephyrUtils.parseHxmPacket(packet, command);
-					
-					/** add RR info */
-					command = ZephyrUtils.parseHxmRtoR(packet, command);
+					/** heart rate, beat count, speed, distance, RR etc */
+					sample.decodeHxm(packet);
+					command = sample.toCommand(command);
 					
 					/** dead battery -> dead connection ? */
-					if( command.get(PrototypeFactory.battery).equals("0")){
+					if (sample.getCharge() == 0) {
 						constants.error("HXM battery is dead", this);
 						port.close();
 					}
 
-					if(constants.getBoolean(ZephyrOpen.frameworkDebug)) 
-							System.out.println(command);
+					if (debug) 
+						System.out.println(command);
 					
 					command.send();
-					//Utils.delay(300);
+
+					/** track arrival of data packets, the watchdog times out without them */
+					last = System.currentTimeMillis();
 				} 
 			}
 		}
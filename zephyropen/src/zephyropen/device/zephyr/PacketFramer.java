@@ -0,0 +1,173 @@
+package zephyropen.device.zephyr;
+
+import java.io.IOException;
+
+import zephyropen.port.Port;
+
+/**
+ * <p>
+ * Cuts the byte stream from a Zephyr device into packets.
+ * <p>
+ * Every packet is STX, message id, DLC, DLC bytes of payload, the CRC of the
+ * payload, then ETX, or ACK or NAK in a Bioharness reply. Bytes are kept in a
+ * ring until a whole packet has arrived. Anything that does not start with STX,
+ * or fails its CRC or terminator, is skipped a byte at a time until the stream
+ * lines up again, so a connection that starts mid packet or drops a byte loses
+ * one packet, not the session.
+ * <p>
+ * One read may hold several packets, call {@link #next()} until it returns
+ * null. The packet returned is reused by the next call.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class PacketFramer {
+
+	/** STX, message id, DLC, CRC and terminator */
+	public static final int OVERHEAD = 5;
+
+	/** largest payload the devices send */
+	public static final int MAX_DLC = 128;
+
+	/** bytes held, a power of two */
+	private static final int CAPACITY = 1024;
+	private static final int MASK = CAPACITY - 1;
+
+	/** largest single read from the port */
+	private static final int READ_SIZE = 256;
+
+	private final byte[] ring = new byte[CAPACITY];
+	private final byte[] input = new byte[READ_SIZE];
+	private final byte[] packet = new byte[MAX_DLC + OVERHEAD];
+
+	/** read and write positions, masked when used */
+	private int head = 0;
+	private int tail = 0;
+
+	/** size of the last packet returned */
+	private int size = 0;
+
+	/** bytes skipped to find the next packet */
+	private long skipped = 0;
+
+	/** candidate packets that failed CRC or terminator */
+	private long errors = 0;
+
+	/**
+	 * Read what the port has into the ring
+	 *
+	 * @return bytes read, -1 if the stream has ended
+	 * @throws IOException
+	 *             if the read fails
+	 */
+	public int read(Port port) throws IOException {
+
+		final int bytes = port.read(input);
+		if (bytes > 0)
+			add(input, 0, bytes);
+
+		return bytes;
+	}
+
+	/** add bytes to the ring, losing the oldest if it is full */
+	public void add(byte[] data, int offset, int length) {
+
+		for (int i = 0; i < length; i++)
+			ring[(head + i) & MASK] = data[offset + i];
+
+		head += length;
+
+		if (head - tail > CAPACITY) {
+			skipped += head - tail - CAPACITY;
+			tail = head - CAPACITY;
+		}
+	}
+
+	/** @return bytes waiting in the ring */
+	public int available() {
+		return head - tail;
+	}
+
+	/**
+	 * @return the next whole, error free packet, or null if none has arrived
+	 *         yet. STX is at index zero; valid until the next call
+	 */
+	public byte[] next() {
+
+		while (head - tail >= OVERHEAD) {
+
+			if (ring[tail & MASK] != ZephyrUtils.STX) {
+				skip();
+				continue;
+			}
+
+			final int dlc = ring[(tail + 2) & MASK] & 0xff;
+			if (dlc > MAX_DLC) {
+				skip();
+				continue;
+			}
+
+			/** wait for the rest of it */
+			final int length = dlc + OVERHEAD;
+			if (head - tail < length)
+				return null;
+
+			for (int i = 0; i < length; i++)
+				packet[i] = ring[(tail + i) & MASK];
+
+			final byte terminator = packet[length - 1];
+			if ((terminator == ZephyrUtils.ETX || terminator == BioharnessDevice.ACK || terminator == BioharnessDevice.NAK)
+					&& ZephyrUtils.crc(packet, 3, dlc) == (packet[length - 2] & 0xff)) {
+
+				tail += length;
+				size = length;
+				return packet;
+			}
+
+			/** an STX inside some other packet, look past it */
+			errors++;
+			skip();
+		}
+
+		return null;
+	}
+
+	private void skip() {
+		tail++;
+		skipped++;
+	}
+
+	/** @return the size of the last packet returned by {@link #next()} */
+	public int size() {
+		return size;
+	}
+
+	/** @return the message id of the last packet */
+	public int getMessageId() {
+		return packet[1] & 0xff;
+	}
+
+	/** @return the terminator of the last packet, ETX, ACK or NAK */
+	public byte getTerminator() {
+		if (size == 0)
+			return 0;
+
+		return packet[size - 1];
+	}
+
+	/** @return bytes thrown away getting back in step */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/** @return candidate packets that failed their checks */
+	public long getErrors() {
+		return errors;
+	}
+
+	/** forget everything held, eg. after a reconnect */
+	public void clear() {
+		head = 0;
+		tail = 0;
+		size = 0;
+	}
+}
@@ -0,0 +1,276 @@
+package zephyropen.device.zephyr;
+
+import zephyropen.api.PrototypeFactory;
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+import zephyropen.state.HeartRateVariability;
+
+/**
+ * Turns the rr tags of one device's commands into beat to beat intervals,
+ * passing each beat to a {@link HeartRateVariability} only once.
+ * <p>
+ * The HXM and HRM send the time stamps of the last 15 beats with every packet,
+ * so consecutive packets overlap. The 'beat' tag counts heart beats, the
+ * difference from the last packet is how many of the intervals are new.
+ * <p>
+ * The Bioharness sends 18 samples of the current interval per packet, the
+ * 'beat' tag is the packet sequence number. The sample's sign flips on every
+ * beat and its magnitude is the interval, so a new beat is a change of sign,
+ * even when two intervals are the same. A repeated sequence number is a
+ * packet already seen, a skipped one breaks the run of successive beats. Its
+ * general data packets go out as 'bioharness' too, with their own sequence,
+ * so only commands whose 'kind' is 'rr' are read.
+ * <p>
+ * Time lost to dropped packets is passed on with
+ * {@link HeartRateVariability#skip(double)} so the beat times stay real time.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class RtoRDecoder {
+
+	/** time stamps in a HXM or HRM packet */
+	public static final int HXM_STAMPS = 15;
+
+	/** interval samples in a Bioharness packet */
+	public static final int BIOHARNESS_SAMPLES = 18;
+
+	/** the beat and sequence counters wrap at this */
+	private static final int COUNTER = 256;
+
+	/** time stamps wrap at this */
+	private static final int STAMP = 65536;
+
+	/** time covered by one Bioharness R to R packet, 18 samples 56 ms apart */
+	public static final double BIOHARNESS_PERIOD = 1008;
+
+	private static final String[] TAGS = new String[BIOHARNESS_SAMPLES];
+
+	static {
+		for (int i = 0; i < TAGS.length; i++)
+			TAGS[i] = PrototypeFactory.rr + i;
+	}
+
+	private final double[] stamps = new double[HXM_STAMPS];
+
+	/** last beat count or sequence number, -1 before the first packet */
+	private int last = -1;
+
+	/** order of the HXM time stamps, worked out from the first packet that makes sense */
+	private int newestFirst = 0;
+
+	/** last Bioharness sample */
+	private double sample = Double.NaN;
+
+	/** newest HXM time stamp already added, NaN before the first */
+	private double newest = Double.NaN;
+
+	/**
+	 * @param command
+	 *            from the device, with rr tags
+	 * @param hrv
+	 *            to add the new intervals to
+	 * @return the number of new intervals found
+	 */
+	public int decode(Command command, HeartRateVariability hrv) {
+
+		final int kind = PrototypeFactory.getDeviceType(command.getType());
+
+		if (kind == PrototypeFactory.HXM || kind == PrototypeFactory.HRM)
+			return decodeStamps(command, hrv);
+
+		if (kind == PrototypeFactory.BIOHARNESS && PrototypeFactory.rr.equals(command.get(ZephyrOpen.kind)))
+			return decodeSamples(command, hrv);
+
+		return 0;
+	}
+
+	/** @return the counter tag, or -1 if missing */
+	private static int getCounter(Command command) {
+		try {
+			return Integer.parseInt(command.get(PrototypeFactory.beat)) % COUNTER;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/** @return the rr tag as a number, or NaN */
+	private static double getRr(Command command, int i) {
+
+		String value = command.get(TAGS[i]);
+		if (value == null)
+			return Double.NaN;
+
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/** new intervals between the HXM's beat time stamps */
+	private int decodeStamps(Command command, HeartRateVariability hrv) {
+
+		final int beat = getCounter(command);
+		if (beat < 0)
+			return 0;
+
+		for (int i = 0; i < HXM_STAMPS; i++) {
+			stamps[i] = getRr(command, i);
+			if (Double.isNaN(stamps[i]))
+				return 0;
+		}
+
+		if (newestFirst == 0)
+			newestFirst = order();
+
+		/** no order makes sense yet, the device is still filling its stamps */
+		if (newestFirst == 0)
+			return 0;
+
+		int fresh = HXM_STAMPS - 1;
+		if (last >= 0) {
+
+			fresh = (beat - last + COUNTER) % COUNTER;
+			if (fresh == 0)
+				return 0;
+
+			/** lost packets, more beats than stamps, skip to the oldest stamp we have */
+			if (fresh > HXM_STAMPS - 1) {
+				fresh = HXM_STAMPS - 1;
+				hrv.skip((stamp(HXM_STAMPS - 1) - newest + STAMP) % STAMP);
+			}
+		} else {
+			hrv.breakSequence();
+		}
+
+		last = beat;
+		newest = stamp(0);
+
+		/** oldest new interval first */
+		for (int i = fresh - 1; i >= 0; i--)
+			hrv.add(interval(i));
+
+		return fresh;
+	}
+
+	/** @return the i'th newest time stamp */
+	private double stamp(int i) {
+
+		if (newestFirst > 0)
+			return stamps[i];
+
+		return stamps[HXM_STAMPS - 1 - i];
+	}
+
+	/** @return the i'th newest interval, in ms */
+	private double interval(int i) {
+
+		if (newestFirst > 0)
+			return (stamps[i] - stamps[i + 1] + STAMP) % STAMP;
+
+		final int newest = HXM_STAMPS - 1 - i;
+		return (stamps[newest] - stamps[newest - 1] + STAMP) % STAMP;
+	}
+
+	/** @return 1 if the stamps are newest first, -1 if oldest first, 0 if neither gives sensible intervals */
+	private int order() {
+
+		int forward = 0;
+		int backward = 0;
+
+		for (int i = 0; i < HXM_STAMPS - 1; i++) {
+			if (plausible((stamps[i] - stamps[i + 1] + STAMP) % STAMP))
+				forward++;
+			if (plausible((stamps[i + 1] - stamps[i] + STAMP) % STAMP))
+				backward++;
+		}
+
+		final int needed = (HXM_STAMPS - 1) * 3 / 4;
+		if (forward >= needed && forward > backward)
+			return 1;
+		if (backward >= needed && backward > forward)
+			return -1;
+
+		return 0;
+	}
+
+	private static boolean plausible(double rr) {
+		return rr >= HeartRateVariability.MIN_RR && rr <= HeartRateVariability.MAX_RR;
+	}
+
+	/** new beats in the Bioharness's interval samples */
+	private int decodeSamples(Command command, HeartRateVariability hrv) {
+
+		final int sequence = getCounter(command);
+		if (sequence < 0)
+			return 0;
+
+		if (sequence == last)
+			return 0;
+
+		/** skipped packets, the beats between them are lost */
+		if (last < 0) {
+			hrv.breakSequence();
+			sample = Double.NaN;
+		} else if (sequence != (last + 1) % COUNTER) {
+			hrv.skip(((sequence - last - 1 + COUNTER) % COUNTER) * BIOHARNESS_PERIOD);
+			sample = Double.NaN;
+		}
+
+		last = sequence;
+
+		int fresh = 0;
+		for (int i = 0; i < BIOHARNESS_SAMPLES; i++) {
+
+			final double value = getRr(command, i);
+			if (Double.isNaN(value) || value == 0)
+				continue;
+
+			/** same sign, the same beat */
+			if (!Double.isNaN(sample) && (value < 0) == (sample < 0))
+				continue;
+
+			/** the first sample may be a beat from the last packet */
+			if (!Double.isNaN(sample) || i > 0) {
+				hrv.add(Math.abs(value));
+				fresh++;
+			}
+
+			sample = value;
+		}
+
+		return fresh;
+	}
+
+	/** Check that equal Bioharness intervals in a row are counted as separate beats */
+	public static void main(String[] args) {
+
+		RtoRDecoder decoder = new RtoRDecoder();
+		HeartRateVariability hrv = new HeartRateVariability();
+		Command command = new Command(PrototypeFactory.bioharness);
+		command.add(ZephyrOpen.kind, PrototypeFactory.rr);
+
+		/** a steady 840 ms, 15 samples a beat, the sign flipping on each */
+		int beats = 0;
+		for (int packet = 0; packet < 10; packet++) {
+
+			command.add(PrototypeFactory.beat, String.valueOf(packet));
+			for (int i = 0; i < BIOHARNESS_SAMPLES; i++) {
+
+				final int n = packet * BIOHARNESS_SAMPLES + i;
+				if (n > 0 && n % 15 == 0)
+					beats++;
+
+				command.add(TAGS[i], String.valueOf((n / 15) % 2 == 0 ? 840 : -840));
+			}
+
+			decoder.decode(command, hrv);
+		}
+
+		if (hrv.getAdded() != beats || hrv.getMeanRr() != 840)
+			throw new IllegalStateException("expected " + beats + " beats of 840 ms, got " + hrv.getAdded()
+					+ " of " + hrv.getMeanRr());
+
+		System.out.println(beats + " equal intervals, " + hrv.getAdded() + " beats");
+	}
+}
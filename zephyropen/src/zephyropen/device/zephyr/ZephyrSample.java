@@ -0,0 +1,259 @@
+package zephyropen.device.zephyr;
+
+import zephyropen.api.PrototypeFactory;
+import zephyropen.command.Command;
+
+/**
+ * <p>
+ * The readings in one Zephyr packet, decoded straight from the packet's bytes.
+ * <p>
+ * A device keeps one sample and decodes every packet into it, so nothing is
+ * allocated while decoding. The numbers only become strings in
+ * {@link #toCommand(Command)}, when the sample is sent on the bus. Devices
+ * reuse one command, so other tags it already holds stay as they were, except
+ * the rr tags, which are removed when the last packet had fewer or none.
+ * <p>
+ * Byte offsets and scaling are those of the HXM guide and the Bioharness
+ * packets, see {@link ZephyrUtils}.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class ZephyrSample {
+
+	/** bits of the fields present */
+	public static final int HEART = 1;
+	public static final int BEAT = 2;
+	public static final int BATTERY = 4;
+	public static final int POSTURE = 8;
+	public static final int RESPIRATION = 16;
+	public static final int TEMPERATURE = 32;
+	public static final int SPEED = 64;
+	public static final int CADENCE = 128;
+	public static final int DISTANCE = 256;
+	public static final int STRIDES = 512;
+	public static final int RR = 1024;
+	public static final int CHARGE = 2048;
+
+	/** HXM time stamps or Bioharness interval samples, whichever is more */
+	public static final int MAX_RR = RtoRDecoder.BIOHARNESS_SAMPLES;
+
+	/** rr0, rr1 ... */
+	private static final String[] RR_TAGS = new String[MAX_RR];
+
+	static {
+		for (int i = 0; i < RR_TAGS.length; i++)
+			RR_TAGS[i] = PrototypeFactory.rr + i;
+	}
+
+	private int present = 0;
+
+	private int heart = 0;
+	private int beat = 0;
+	private int strides = 0;
+	private int charge = 0;
+	private double battery = 0;
+	private double posture = 0;
+	private double respiration = 0;
+	private double temperature = 0;
+	private double speed = 0;
+	private double cadence = 0;
+	private double distance = 0;
+
+	private final int[] rr = new int[MAX_RR];
+	private int rrCount = 0;
+
+	/** forget the last packet */
+	public void clear() {
+		present = 0;
+		rrCount = 0;
+	}
+
+	/** @return true if the last packet had the field */
+	public boolean has(int field) {
+		return (present & field) != 0;
+	}
+
+	/** unsigned byte */
+	private static int u8(byte[] packet, int index) {
+		return packet[index] & 0xff;
+	}
+
+	/** the heart rate, beat count and battery of an HRM or HXM packet */
+	public void decodeHrm(byte[] packet) {
+
+		clear();
+		charge = u8(packet, 11);
+		heart = u8(packet, 12);
+		beat = u8(packet, 13);
+		present |= CHARGE | HEART | BEAT;
+
+		decodeStamps(packet);
+	}
+
+	/** everything in an HXM packet, the HRM's fields plus speed, distance and strides */
+	public void decodeHxm(byte[] packet) {
+
+		decodeHrm(packet);
+
+		strides = u8(packet, 54);
+		distance = Math.abs((double) ZephyrUtils.mergeUnsigned(packet[50], packet[51]) / 16);
+		speed = Math.abs((double) ZephyrUtils.mergeUnsigned(packet[52], packet[53]) / 256);
+		cadence = Math.abs((double) ZephyrUtils.mergeUnsigned(packet[54], packet[55]) / 16);
+		present |= STRIDES | DISTANCE | SPEED | CADENCE;
+	}
+
+	/** the 15 beat time stamps of an HRM or HXM packet */
+	private void decodeStamps(byte[] packet) {
+
+		/** first rr time stamp index, two bytes each, see pdf */
+		int index = 14;
+		for (int i = 0; i < RtoRDecoder.HXM_STAMPS; i++) {
+			rr[i] = ZephyrUtils.mergeUnsigned(packet[index], packet[index + 1]);
+			index += 2;
+		}
+
+		rrCount = RtoRDecoder.HXM_STAMPS;
+		present |= RR;
+	}
+
+	/** a Bioharness general data packet */
+	public void decodeBioharness(byte[] packet) {
+
+		clear();
+		beat = u8(packet, 3);
+		heart = u8(packet, 12);
+		battery = (double) ZephyrUtils.merge(packet[24], packet[25]) / 1000;
+		posture = (double) ZephyrUtils.merge(packet[18], packet[19]) / 10;
+		respiration = Math.abs((double) ZephyrUtils.merge(packet[14], packet[15]) / 10);
+		temperature = (double) ZephyrUtils.merge(packet[16], packet[17]) / 10;
+		present |= BEAT | HEART | BATTERY | POSTURE | RESPIRATION | TEMPERATURE;
+	}
+
+	/**
+	 * A Bioharness R to R packet, the sequence number and 18 interval samples.
+	 * The device flips the sign of the sample on every beat, so it is kept, the
+	 * magnitude is the interval.
+	 */
+	public void decodeBioharnessRtoR(byte[] packet) {
+
+		clear();
+		beat = u8(packet, 3);
+		present |= BEAT;
+
+		int index = 12;
+		for (int i = 0; i < RtoRDecoder.BIOHARNESS_SAMPLES; i++) {
+			rr[i] = ZephyrUtils.merge(packet[index], packet[index + 1]);
+			index += 2;
+		}
+
+		rrCount = RtoRDecoder.BIOHARNESS_SAMPLES;
+		present |= RR;
+	}
+
+	/**
+	 * Put the fields of the last packet into a command
+	 *
+	 * @param command
+	 *            to add to, other tags but rr are left as they are
+	 * @return the same command
+	 */
+	public Command toCommand(Command command) {
+
+		if (has(HEART))
+			command.add(PrototypeFactory.heart, Integer.toString(heart));
+		if (has(BEAT))
+			command.add(PrototypeFactory.beat, Integer.toString(beat));
+		if (has(CHARGE))
+			command.add(PrototypeFactory.battery, Integer.toString(charge));
+		if (has(BATTERY))
+			command.add(PrototypeFactory.battery, String.valueOf(battery));
+		if (has(POSTURE))
+			command.add(PrototypeFactory.posture, String.valueOf(posture));
+		if (has(RESPIRATION))
+			command.add(PrototypeFactory.respiration, String.valueOf(respiration));
+		if (has(TEMPERATURE))
+			command.add(PrototypeFactory.temperature, String.valueOf(temperature));
+		if (has(STRIDES))
+			command.add(PrototypeFactory.strides, Integer.toString(strides));
+		if (has(DISTANCE))
+			command.add(PrototypeFactory.distance, String.valueOf(distance));
+		if (has(SPEED))
+			command.add(PrototypeFactory.speed, String.valueOf(speed));
+		if (has(CADENCE))
+			command.add(PrototypeFactory.cadence, String.valueOf(cadence));
+
+		for (int i = 0; i < rrCount; i++)
+			command.add(RR_TAGS[i], Integer.toString(rr[i]));
+
+		/** stale intervals would be read again as new ones */
+		for (int i = rrCount; i < MAX_RR; i++)
+			command.delete(RR_TAGS[i]);
+
+		return command;
+	}
+
+	/** @return beats per minute */
+	public int getHeart() {
+		return heart;
+	}
+
+	/** @return beat count, or the Bioharness packet sequence number */
+	public int getBeat() {
+		return beat;
+	}
+
+	/** @return battery percent, HXM and HRM */
+	public int getCharge() {
+		return charge;
+	}
+
+	/** @return battery volts, Bioharness */
+	public double getBattery() {
+		return battery;
+	}
+
+	/** @return degrees from vertical */
+	public double getPosture() {
+		return posture;
+	}
+
+	/** @return breaths per minute */
+	public double getRespiration() {
+		return respiration;
+	}
+
+	/** @return skin temperature in degrees C */
+	public double getTemperature() {
+		return temperature;
+	}
+
+	/** @return metres per second */
+	public double getSpeed() {
+		return speed;
+	}
+
+	/** @return steps per minute */
+	public double getCadence() {
+		return cadence;
+	}
+
+	/** @return metres */
+	public double getDistance() {
+		return distance;
+	}
+
+	/** @return stride count */
+	public int getStrides() {
+		return strides;
+	}
+
+	/** @return HXM time stamps or Bioharness samples in the last packet */
+	public int getRrCount() {
+		return rrCount;
+	}
+
+	/** @return the i'th time stamp or interval sample, in ms, signed for the Bioharness */
+	public int getRr(int i) {
+		return rr[i];
+	}
+}
@@ -1,6 +1,9 @@
 package zephyropen.device.zephyr;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Random;
 
 import zephyropen.api.ZephyrOpen;
 import zephyropen.api.PrototypeFactory;
@@ -42,25 +45,89 @@ public class ZephyrUtils {
 	/** HXM packet size */
 	public final static byte HXM_DLC = 0x37;
 
+	/** least time between reports of bad packets */
+	public static final long ERROR_PERIOD = 5000;
+
+	/** when bad packets were last reported, and how many since */
+	private static long reported = 0;
+	private static int unreported = 0;
+
+	/** CRC of each byte value, the same as eight turns of ChecksumPushByte */
+	private static final int[] CRC_TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < CRC_TABLE.length; i++)
+			CRC_TABLE[i] = ChecksumPushByte(0, i);
+	}
+
 	/**
-	 * Do a CBC check on this packet
+	 * Do a CRC check on this packet
 	 * 
 	 * @param packet
-	 *            to test
+	 *            to test, STX first
 	 * @return true if error free
 	 */
 	public static boolean checkCRC(byte[] packet) {
 
-		int crc = 0;
-		for (int i = 2; i < 57; i++)
-			crc = ZephyrUtils.ChecksumPushByte(crc, ZephyrUtils
-					.readUnsignedByte(packet[i]));
+		if (packet == null || packet.length < 5)
+			return false;
+
+		final int dlc = packet[2] & 0xff;
+		if (packet.length < dlc + 5)
+			return false;
 
 		/** Then compare to the packet CRC */
-		if (crc == ZephyrUtils.readUnsignedByte(packet[57]))
-			return true;
+		return crc(packet, 3, dlc) == (packet[3 + dlc] & 0xff);
+	}
+
+	/**
+	 * CRC of a packet's payload, a byte at a time from a table
+	 * 
+	 * @param data
+	 *            holding the payload
+	 * @param offset
+	 *            of the first payload byte, 3 in a whole packet
+	 * @param length
+	 *            of the payload, the packet's DLC
+	 * @return the CRC to compare to the byte after the payload
+	 */
+	public static int crc(byte[] data, int offset, int length) {
+
+		int crc = 0;
+		final int end = offset + length;
+		for (int i = offset; i < end; i++)
+			crc = CRC_TABLE[(crc ^ data[i]) & 0xff];
+
+		return crc;
+	}
+
+	/**
+	 * Report a bad packet, at most once every {@link #ERROR_PERIOD} ms so a
+	 * noisy link does not spend its time logging
+	 * 
+	 * @param line
+	 *            describing the error
+	 * @param clazz
+	 *            that found it
+	 */
+	public static void packetError(String line, Object clazz) {
 
-		return false;
+		final long now = System.currentTimeMillis();
+		synchronized (CRC_TABLE) {
+
+			if (now - reported < ERROR_PERIOD) {
+				unreported++;
+				return;
+			}
+
+			if (unreported > 0)
+				line += " (and " + unreported + " more in " + (now - reported) + " ms)";
+
+			reported = now;
+			unreported = 0;
+		}
+
+		constants.error(line, clazz);
 	}
 
 	/** CRC check taken from Zephyr PDF's */
@@ -113,9 +180,7 @@ public class ZephyrUtils {
 	 * @return a String of the indexed byte
 	 */
 	public static String parseString(byte[] packet, int index) {
-		String hex = byteToHex(packet[index]);
-		short value = Short.parseShort(hex, 16);
-		return String.valueOf(value);
+		return String.valueOf(packet[index] & 0xff);
 	}
 
 	/**
@@ -127,8 +192,7 @@ public class ZephyrUtils {
 	 * @return a String of the indexed byte
 	 */
 	public static short parseShort(byte[] packet, int index) {
-		String hex = byteToHex(packet[index]);
-		return Short.parseShort(hex, 16);
+		return (short) (packet[index] & 0xff);
 	}
 
 	/**
@@ -141,12 +205,7 @@ public class ZephyrUtils {
 	 * @return a signed intt value
 	 */
 	public static int merge(byte low, byte high) {
-		int b = 0;
-		b += (high << 8) + low;
-		if ((high & 0x80) != 0) {
-			b = -(0xffffffff - b);
-		}
-		return b;
+		return (short) ((high & 0xff) << 8 | (low & 0xff));
 	}
 
 	/**
@@ -461,34 +520,34 @@ public class ZephyrUtils {
 		if (packet == null)
 			return false;
 
-		if (packet.length != 60) {
+		if (packet.length < 60) {
 			/** most common, happens when not in sync with HXM */
-			constants.error("wrong packet size on HXM");
+			packetError("wrong packet size on HXM", constants);
 			return false;
 		}
 
 		if (packet[0] != STX) {
-			constants.error("STX error on HXM");
+			packetError("STX error on HXM", constants);
 			return false;
 		}
 
 		if (packet[1] != HXM_ID) {
-			constants.error("MSG_ID error on HXM");
+			packetError("MSG_ID error on HXM", constants);
 			return false;
 		}
 
 		if (packet[2] != HXM_DLC) {
-			constants.error("DLC error on HXM");
+			packetError("DLC error on HXM", constants);
 			return false;
 		}
 
 		if (packet[59] != ETX) {
-			constants.error("ETC error on HXM");
+			packetError("ETX error on HXM", constants);
 			return false;
 		}
 
-		if (ZephyrUtils.checkCRC(packet)) {
-			constants.error("CRC error on HXM");
+		if (!ZephyrUtils.checkCRC(packet)) {
+			packetError("CRC error on HXM", constants);
 			return false;
 		}
 
@@ -578,4 +637,88 @@ public class ZephyrUtils {
 		
 		return true;
 	}
+
+	/** the CRC a bit at a time, as in the Zephyr PDF's, to check the table against */
+	private static int crcBitwise(byte[] data, int offset, int length) {
+
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++)
+			crc = ChecksumPushByte(crc, readUnsignedByte(data[i]));
+
+		return crc;
+	}
+
+	/**
+	 * Check the table CRC against the bit at a time one and time both.
+	 * 
+	 * @param args
+	 *            optional file of raw bytes recorded from a device, every
+	 *            packet framed from it is checked as well
+	 */
+	public static void main(String[] args) throws IOException {
+
+		/** the setup requests, CRC from the Zephyr documents */
+		byte[] setup = { STX, 0x14, 0x01, 0x01, 0x5e, ETX };
+		if (!checkCRC(setup) || crc(setup, 3, 1) != 0x5e)
+			throw new IllegalStateException("CRC of the setup packet is wrong");
+
+		Random random = new Random(1);
+		byte[] packet = new byte[60];
+		for (int i = 0; i < 100000; i++) {
+			random.nextBytes(packet);
+			int offset = random.nextInt(packet.length);
+			int length = random.nextInt(packet.length - offset + 1);
+			if (crc(packet, offset, length) != crcBitwise(packet, offset, length))
+				throw new IllegalStateException("CRC table disagrees at " + offset + ", " + length);
+		}
+		System.out.println("CRC table agrees with the bitwise CRC");
+
+		if (args.length > 0) {
+
+			PacketFramer framer = new PacketFramer();
+			byte[] buffer = new byte[256];
+			FileInputStream in = new FileInputStream(args[0]);
+			int packets = 0;
+			try {
+				int bytes = 0;
+				while ((bytes = in.read(buffer)) > 0) {
+					framer.add(buffer, 0, bytes);
+					byte[] framed = null;
+					while ((framed = framer.next()) != null) {
+						if (!checkCRC(framed) || crc(framed, 3, framed[2] & 0xff) != crcBitwise(framed, 3, framed[2] & 0xff))
+							throw new IllegalStateException("recorded packet " + packets + " fails");
+						packets++;
+					}
+				}
+			} finally {
+				in.close();
+			}
+
+			System.out.println(args[0] + ": " + packets + " packets, " + framer.getSkipped() + " bytes skipped, "
+					+ framer.getErrors() + " bad");
+		}
+
+		/** time both over HXM sized payloads */
+		final int rounds = 2000000;
+		byte[][] packets = new byte[64][60];
+		for (int i = 0; i < packets.length; i++)
+			random.nextBytes(packets[i]);
+
+		for (int pass = 0; pass < 3; pass++) {
+
+			int sink = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				sink += crcBitwise(packets[i & 63], 3, HXM_DLC);
+			long bitwise = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < rounds; i++)
+				sink -= crc(packets[i & 63], 3, HXM_DLC);
+			long table = System.nanoTime() - start;
+
+			System.out.println("bitwise: " + (bitwise / rounds) + " ns, table: " + (table / rounds) + " ns per packet "
+					+ (sink == 0 ? "" : "(mismatch)"));
+		}
+	}
 }
@@ -1,5 +1,8 @@
 package zephyropen.socket;
 
+import java.nio.ByteBuffer;
+
+import zephyropen.api.ZephyrOpen;
 import zephyropen.command.Command;
 import zephyropen.socket.OutputChannel;
 
@@ -12,9 +15,29 @@ import zephyropen.socket.OutputChannel;
  */
 public abstract class AbstractOutputChannel implements OutputChannel {
 
+   private static ZephyrOpen constants = ZephyrOpen.getReference();
+
    public AbstractOutputChannel(){}
 
+   /** add the sender, external address and user tags before sending */
+   protected void prepare(Command command){
+
+      if( constants.getBoolean(ZephyrOpen.showLAN))
+         command.add(ZephyrOpen.sender, constants.get(ZephyrOpen.localAddress) ); 
+
+      if( constants.getBoolean(ZephyrOpen.externalLookup))
+         command.add(ZephyrOpen.externalAddress, constants.get(ZephyrOpen.externalAddress));
+
+      if(command.get(ZephyrOpen.user) == null)
+         command.add(ZephyrOpen.user, constants.get(ZephyrOpen.user));
+   }
+
    public void write(Command out){
       System.out.println("AbstractOutputChannel.write() : override this method.");
    }
+
+   /** @param packet is an encoded datagram, from position to limit, to send as is */
+   public void send(ByteBuffer packet){
+      System.out.println("AbstractOutputChannel.send() : override this method.");
+   }
 }
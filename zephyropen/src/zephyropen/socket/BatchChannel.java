@@ -0,0 +1,155 @@
+package zephyropen.socket;
+
+import java.nio.ByteBuffer;
+
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+
+/**
+ * Packs the commands written by this process into as few datagrams as it can.
+ * <p>
+ * Each command is encoded straight into the pending batch with its length in
+ * front. The batch is sent on the wrapped channel when the next command will
+ * not fit in <code>batchSize</code> bytes, or when the oldest command in it
+ * has waited <code>batchDelay</code> milliseconds, whichever comes first. A
+ * batch holding only one command is sent as a plain packet. Receivers unpack
+ * batches in {@link PacketCodec#dispatch(String, byte[], int, int)}.
+ * <p>
+ * Turn on with <code>batch=true</code> in the properties file.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class BatchChannel extends AbstractOutputChannel implements OutputChannel, Runnable {
+
+	private static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	/** the channels receive into 1k buffers, never send anything bigger */
+	public static final int MAX_SIZE = 1024;
+
+	/** default latency bound */
+	public static final int DEFAULT_DELAY = 5;
+
+	private AbstractOutputChannel channel = null;
+	private PacketCodec codec = null;
+	private ByteBuffer batch = null;
+	private long delay = 0;
+
+	/** commands in the pending batch */
+	private int count = 0;
+
+	/** when the first command in the pending batch was written */
+	private long started = 0;
+
+	/**
+	 * @param channel
+	 *            to send the batches on
+	 */
+	public BatchChannel(AbstractOutputChannel channel) {
+
+		this.channel = channel;
+		codec = new PacketCodec();
+
+		int size = constants.getInteger(ZephyrOpen.batchSize);
+		if (size <= 0 || size > MAX_SIZE)
+			size = MAX_SIZE;
+
+		int millis = constants.getInteger(ZephyrOpen.batchDelay);
+		if (millis < 0)
+			millis = DEFAULT_DELAY;
+
+		delay = millis * 1000000L;
+		batch = ByteBuffer.allocateDirect(size);
+
+		/** flushes batches that are not filled in time */
+		Thread flusher = new Thread(this);
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/** @param command to add to the pending batch */
+	public void write(Command command) {
+
+		prepare(command);
+
+		synchronized (this) {
+
+			if (append(command))
+				return;
+
+			/** full, send what we have and start a new batch */
+			flush();
+
+			if (!append(command))
+				constants.error("command too large to send: " + command.getType(), this);
+		}
+	}
+
+	/** @return false if the command does not fit in the pending batch */
+	private boolean append(Command command) {
+
+		if (count == 0) {
+			batch.clear();
+			batch.put(PacketCodec.BATCH);
+		}
+
+		if (batch.remaining() < PacketCodec.LENGTH_SIZE)
+			return false;
+
+		/** leave room for the length, then encode in place */
+		final int start = batch.position();
+		batch.position(start + PacketCodec.LENGTH_SIZE);
+		if (!codec.encode(command, batch)) {
+			batch.position(start);
+			return false;
+		}
+
+		batch.putShort(start, (short) (batch.position() - start - PacketCodec.LENGTH_SIZE));
+
+		if (count++ == 0) {
+			started = System.nanoTime();
+			notify();
+		}
+
+		return true;
+	}
+
+	/** send the pending batch now */
+	public synchronized void flush() {
+
+		if (count == 0)
+			return;
+
+		batch.flip();
+
+		/** only one, send it as a plain packet */
+		if (count == 1)
+			batch.position(PacketCodec.BATCH_HEADER + PacketCodec.LENGTH_SIZE);
+
+		channel.send(batch);
+		count = 0;
+	}
+
+	/** send batches that have waited long enough */
+	public void run() {
+		try {
+			synchronized (this) {
+				while (true) {
+
+					/** wait for the first command of a batch */
+					while (count == 0)
+						wait();
+
+					long remaining = started + delay - System.nanoTime();
+					if (remaining > 0) {
+						wait(remaining / 1000000L, (int) (remaining % 1000000L));
+						continue;
+					}
+
+					flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			constants.error("batch flush thread stopped", this);
+		}
+	}
+}
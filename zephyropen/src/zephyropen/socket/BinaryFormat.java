@@ -0,0 +1,469 @@
+package zephyropen.socket;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import zephyropen.api.PrototypeFactory;
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+
+/**
+ * A compact, length prefixed binary encoding of a {@link Command}.
+ * <p>
+ * Each record is laid out as:
+ *
+ * <pre>
+ *   magic     1 byte, never a valid first byte of an xml packet
+ *   length    2 bytes, unsigned, the whole record including this header
+ *   type      1 byte, index into the known types, or 0 then the type as a string
+ *   count     1 byte, number of elements that follow
+ *   elements  [field id, value kind, value] * count
+ * </pre>
+ *
+ * Field ids below {@link #COMMON} are the index of the tag in the
+ * {@link PrototypeFactory} prototype for the command's type, ids from
+ * {@link #COMMON} index the common tags (user, deviceName, rr0..), and
+ * {@link #INLINE} is followed by the tag as a string. Values are written as
+ * ints, longs, floats or doubles when they convert back to the very same string, and
+ * as strings otherwise.
+ * <p>
+ * The leading magic byte lets binary and xml nodes share the same multicast
+ * group, set <code>wireFormat=binary</code> in the properties file to send
+ * binary. Every node can read both.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class BinaryFormat {
+
+	/** the 'wireFormat' property values */
+	public static final String xml = "xml";
+	public static final String binary = "binary";
+
+	/** first byte of every binary record */
+	public static final byte MAGIC = (byte) 0xB5;
+
+	/** magic, length, type and count */
+	public static final int HEADER_SIZE = 5;
+
+	/** field ids */
+	public static final int COMMON = 0x40;
+	public static final int INLINE = 0xFF;
+
+	/** value kinds */
+	private static final byte INT = 0;
+	private static final byte FLOAT = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte STRING = 3;
+	private static final byte TRUE = 4;
+	private static final byte FALSE = 5;
+	private static final byte LONG = 6;
+
+	/** number of rr tags the devices send */
+	private static final int RR_TAGS = 18;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** known command types, the id is the index + 1, zero is an inline type */
+	private static final String[] TYPES = { ZephyrOpen.zephyropen, ZephyrOpen.launch, ZephyrOpen.discovery,
+			PrototypeFactory.hxm, PrototypeFactory.hrm, PrototypeFactory.bioharness, PrototypeFactory.polar,
+			PrototypeFactory.wii, PrototypeFactory.elevation };
+
+	/** tags found in many commands but not part of a prototype */
+	private static final String[] COMMON_TAGS = createCommonTags();
+
+	private static Hashtable<String, Integer> typeIds = new Hashtable<String, Integer>();
+	private static Hashtable<String, Integer> commonIds = new Hashtable<String, Integer>();
+
+	static {
+		for (int i = 0; i < TYPES.length; i++)
+			typeIds.put(TYPES[i], i + 1);
+
+		for (int i = 0; i < COMMON_TAGS.length; i++)
+			commonIds.put(COMMON_TAGS[i], COMMON + i);
+	}
+
+	private BinaryFormat() {
+	}
+
+	/** @return the common tags, rr tags added last */
+	private static String[] createCommonTags() {
+
+		String[] tags = { ZephyrOpen.user, ZephyrOpen.deviceName, ZephyrOpen.timestamp, ZephyrOpen.sender,
+				ZephyrOpen.externalAddress, ZephyrOpen.action, ZephyrOpen.address, ZephyrOpen.kind, ZephyrOpen.code,
+				ZephyrOpen.status, ZephyrOpen.command, "value", PrototypeFactory.distance };
+
+		String[] common = new String[tags.length + RR_TAGS];
+		System.arraycopy(tags, 0, common, 0, tags.length);
+		for (int i = 0; i < RR_TAGS; i++)
+			common[tags.length + i] = PrototypeFactory.rr + i;
+
+		return common;
+	}
+
+	/**
+	 * @return true if the given data starts with a binary record
+	 */
+	public static boolean isBinary(byte[] data, int offset, int length) {
+		return length > 0 && data[offset] == MAGIC;
+	}
+
+	/**
+	 * Write the command into the buffer as one binary record, starting at the
+	 * buffer's position.
+	 *
+	 * @param command
+	 *            to encode
+	 * @param buffer
+	 *            to write into
+	 * @return false if the command does not fit in the buffer, the buffer is
+	 *         left at the start of the record
+	 */
+	public static boolean encode(Command command, ByteBuffer buffer) {
+
+		final int start = buffer.position();
+
+		try {
+
+			buffer.put(MAGIC);
+			buffer.putShort((short) 0);
+
+			/** type id, or the type as a string */
+			String type = command.getType();
+			Integer typeId = typeIds.get(type);
+			if (typeId == null) {
+				buffer.put((byte) 0);
+				putString(buffer, type);
+			} else {
+				buffer.put(typeId.byteValue());
+			}
+
+			final int countIndex = buffer.position();
+			buffer.put((byte) 0);
+
+			String[] prototype = PrototypeFactory.create(type);
+			int count = 0;
+			for (Enumeration<String> e = command.keys(); e.hasMoreElements();) {
+				String key = e.nextElement();
+				putField(buffer, prototype, key);
+				putValue(buffer, command.get(key));
+				count++;
+			}
+
+			buffer.put(countIndex, (byte) count);
+			buffer.putShort(start + 1, (short) (buffer.position() - start));
+
+		} catch (BufferOverflowException e) {
+			buffer.position(start);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Build a command from one binary record
+	 *
+	 * @param data
+	 *            holding the record
+	 * @param offset
+	 *            of the magic byte
+	 * @param length
+	 *            of bytes available
+	 * @return the command, or null if this is not a well formed record
+	 */
+	public static Command decode(byte[] data, int offset, int length) {
+
+		if (!isBinary(data, offset, length) || length < HEADER_SIZE)
+			return null;
+
+		try {
+
+			ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+			buffer.get();
+
+			int size = buffer.getShort() & 0xFFFF;
+			if (size > length)
+				return null;
+
+			buffer.limit(offset + size);
+
+			String type = readType(buffer);
+			if (type == null)
+				return null;
+
+			Command command = new Command(type);
+			String[] prototype = PrototypeFactory.create(type);
+
+			int count = buffer.get() & 0xFF;
+			for (int i = 0; i < count; i++) {
+				String key = getField(buffer, prototype);
+				String value = getValue(buffer);
+				if (key == null || value == null)
+					return null;
+
+				command.add(key, value);
+			}
+
+			return command;
+
+		} catch (BufferUnderflowException e) {
+			return null;
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Read the command type of a record without decoding the rest
+	 *
+	 * @return the type, or null if this is not a well formed record
+	 */
+	public static String getType(byte[] data, int offset, int length) {
+
+		if (!isBinary(data, offset, length) || length < HEADER_SIZE)
+			return null;
+
+		try {
+
+			ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+			buffer.position(offset + 3);
+			return readType(buffer);
+
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Find one element of a record without decoding the others
+	 *
+	 * @param tag
+	 *            of the element to find
+	 * @return the element's value, or null if not in the record
+	 */
+	public static String find(byte[] data, int offset, int length, String tag) {
+
+		if (!isBinary(data, offset, length) || length < HEADER_SIZE)
+			return null;
+
+		try {
+
+			ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+			buffer.position(offset + 3);
+
+			String type = readType(buffer);
+			if (type == null)
+				return null;
+
+			String[] prototype = PrototypeFactory.create(type);
+
+			int count = buffer.get() & 0xFF;
+			for (int i = 0; i < count; i++) {
+
+				String key = getField(buffer, prototype);
+				if (tag.equals(key))
+					return getValue(buffer);
+
+				skipValue(buffer);
+			}
+
+		} catch (BufferUnderflowException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		return null;
+	}
+
+	/** @return the type id or inline type at the buffer's position */
+	private static String readType(ByteBuffer buffer) {
+
+		int typeId = buffer.get() & 0xFF;
+		if (typeId == 0)
+			return getString(buffer);
+		else if (typeId <= TYPES.length)
+			return TYPES[typeId - 1];
+
+		return null;
+	}
+
+	/** step over the next value */
+	private static void skipValue(ByteBuffer buffer) {
+
+		byte kind = buffer.get();
+
+		if (kind == INT || kind == FLOAT)
+			buffer.position(buffer.position() + 4);
+		else if (kind == LONG || kind == DOUBLE)
+			buffer.position(buffer.position() + 8);
+		else if (kind == STRING)
+			buffer.position(buffer.position() + (buffer.getShort() & 0xFFFF));
+	}
+
+	/** @return the total length of the record at the given offset */
+	public static int getLength(byte[] data, int offset) {
+		return ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+	}
+
+	/** write the field id, or inline the tag if it has no id */
+	private static void putField(ByteBuffer buffer, String[] prototype, String key) {
+
+		for (int i = 0; i < prototype.length; i++) {
+			if (prototype[i].equals(key)) {
+				buffer.put((byte) i);
+				return;
+			}
+		}
+
+		Integer id = commonIds.get(key);
+		if (id != null) {
+			buffer.put(id.byteValue());
+			return;
+		}
+
+		buffer.put((byte) INLINE);
+		putString(buffer, key);
+	}
+
+	/** @return the tag for the next field id */
+	private static String getField(ByteBuffer buffer, String[] prototype) {
+
+		int id = buffer.get() & 0xFF;
+
+		if (id == INLINE)
+			return getString(buffer);
+
+		if (id >= COMMON) {
+			id -= COMMON;
+			if (id < COMMON_TAGS.length)
+				return COMMON_TAGS[id];
+
+			return null;
+		}
+
+		if (id < prototype.length)
+			return prototype[id];
+
+		return null;
+	}
+
+	/** write the value as the smallest type that reads back as the same string */
+	private static void putValue(ByteBuffer buffer, String value) {
+
+		if (isNumeric(value)) {
+
+			try {
+
+				long l = Long.parseLong(value);
+				if (Long.toString(l).equals(value)) {
+
+					if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+						buffer.put(INT);
+						buffer.putInt((int) l);
+					} else {
+						buffer.put(LONG);
+						buffer.putLong(l);
+					}
+					return;
+				}
+
+			} catch (NumberFormatException e) {
+				// not a whole number, try as a decimal
+			}
+
+			try {
+
+				double d = Double.parseDouble(value);
+
+				float f = (float) d;
+				if (Float.toString(f).equals(value)) {
+					buffer.put(FLOAT);
+					buffer.putFloat(f);
+					return;
+				}
+
+				if (Double.toString(d).equals(value)) {
+					buffer.put(DOUBLE);
+					buffer.putDouble(d);
+					return;
+				}
+
+			} catch (NumberFormatException e) {
+				// send as a string
+			}
+
+		} else if (value.equals("true")) {
+			buffer.put(TRUE);
+			return;
+		} else if (value.equals("false")) {
+			buffer.put(FALSE);
+			return;
+		}
+
+		buffer.put(STRING);
+		putString(buffer, value);
+	}
+
+	/** @return the next value as a string */
+	private static String getValue(ByteBuffer buffer) {
+
+		byte kind = buffer.get();
+
+		if (kind == INT)
+			return Integer.toString(buffer.getInt());
+
+		if (kind == LONG)
+			return Long.toString(buffer.getLong());
+
+		if (kind == FLOAT)
+			return Float.toString(buffer.getFloat());
+
+		if (kind == DOUBLE)
+			return Double.toString(buffer.getDouble());
+
+		if (kind == STRING)
+			return getString(buffer);
+
+		if (kind == TRUE)
+			return "true";
+
+		if (kind == FALSE)
+			return "false";
+
+		return null;
+	}
+
+	/** @return true if the value could be a number */
+	private static boolean isNumeric(String value) {
+
+		if (value.length() == 0)
+			return false;
+
+		char c = value.charAt(0);
+		return (c >= '0' && c <= '9') || c == '-';
+	}
+
+	/** write a length prefixed utf-8 string */
+	private static void putString(ByteBuffer buffer, String text) {
+		byte[] bytes = text.getBytes(UTF8);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	/** @return the next length prefixed utf-8 string */
+	private static String getString(ByteBuffer buffer) {
+
+		int size = buffer.getShort() & 0xFFFF;
+		if (size > buffer.remaining())
+			throw new BufferUnderflowException();
+
+		String text = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), size, UTF8);
+		buffer.position(buffer.position() + size);
+		return text;
+	}
+}
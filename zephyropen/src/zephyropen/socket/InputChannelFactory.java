@@ -3,6 +3,7 @@ package zephyropen.socket;
 import zephyropen.api.ZephyrOpen;
 import zephyropen.socket.InputChannel;
 import zephyropen.socket.multicast.MulticastChannel;
+import zephyropen.socket.multicast.SelectorChannel;
 
 /**
 
@@ -30,6 +31,13 @@ public class InputChannelFactory {
     	 // is loop back enabled 
     	 ((MulticastChannel) input).setLoopback(constants.getBoolean(ZephyrOpen.loopback));
        
+      } else if (seviceType.equals(ZephyrOpen.selector)) {
+
+    	  input = SelectorChannel.getReference();
+
+    	  // is loop back enabled 
+    	  ((SelectorChannel) input).setLoopback(constants.getBoolean(ZephyrOpen.loopback));
+
       } // else if ....
       
       
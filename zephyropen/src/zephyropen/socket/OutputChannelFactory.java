@@ -4,6 +4,7 @@ package zephyropen.socket;
 // import zephyr.framework.socket.udp.udpOutput;
 import zephyropen.api.ZephyrOpen;
 import zephyropen.socket.multicast.MulticastChannel;
+import zephyropen.socket.multicast.SelectorChannel;
 
 
 /**
@@ -27,6 +28,22 @@ public class OutputChannelFactory /*implements Factory*/ {
     */
    public static OutputChannel create() {
 
+      OutputChannel channel = createChannel();
+
+      // optionally pack several commands into each datagram 
+      if (channel != null && constants.getBoolean(ZephyrOpen.batch))
+         return new BatchChannel((AbstractOutputChannel) channel);
+
+      return channel;
+   }
+
+   /**
+    * use props file to choose channel type
+    *
+    * @return the specified outputChannel, not batched 
+    */
+   private static OutputChannel createChannel() {
+
       ///System.out.println("OutputChannelFactory.create");
 
       String seviceType = constants.get("networkService");
@@ -44,7 +61,11 @@ public class OutputChannelFactory /*implements Factory*/ {
          //
          return MulticastChannel.getReference();
 
-      } 
+      } else if (seviceType.equals(ZephyrOpen.selector)) {
+
+         // all groups and ports on one thread, also both input and output
+         return SelectorChannel.getReference();
+      }
       
       
       /* only multicast at this point 
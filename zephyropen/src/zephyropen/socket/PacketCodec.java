@@ -0,0 +1,254 @@
+package zephyropen.socket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import zephyropen.api.ApiFactory;
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+import zephyropen.command.CommandDispatcher;
+import zephyropen.xml.Parser;
+import zephyropen.xml.ParserFactory;
+
+/**
+ * Turns received packets into commands, and commands into packets, in the
+ * wire format chosen in the properties file.
+ * <p>
+ * Packets starting with the {@link BinaryFormat#MAGIC} byte are binary
+ * records, anything else is parsed as xml with the configured parser. Shared
+ * by the channels so every transport reads and writes the same way.
+ * <p>
+ * A packet starting with the {@link #BATCH} byte holds several packets, each
+ * with an unsigned 2 byte length in front, see {@link BatchChannel}.
+ * <p>
+ * Before a packet is parsed its type, and when a
+ * {@link zephyropen.api.Subscription} needs them its user and deviceName, are
+ * read straight from the bytes. Packets no API in this process wants are
+ * dropped without being parsed.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class PacketCodec {
+
+	private static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	/** first byte of a datagram holding a batch of packets */
+	public static final byte BATCH = (byte) 0xB6;
+
+	/** batch byte, then each packet's length */
+	public static final int BATCH_HEADER = 1;
+	public static final int LENGTH_SIZE = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** the xml open tags the subscriptions look at */
+	private static final byte[] USER_TAG = ("<" + ZephyrOpen.user + ">").getBytes(UTF8);
+	private static final byte[] DEVICE_TAG = ("<" + ZephyrOpen.deviceName + ">").getBytes(UTF8);
+
+	private ApiFactory apiFactory = ApiFactory.getReference();
+
+	private Parser xmlParser = null;
+	private boolean binary = false;
+
+	/** use the 'parser' and 'wireFormat' properties */
+	public PacketCodec() {
+
+		/** parser type via properties file */
+		xmlParser = ParserFactory.create();
+
+		/** send xml or binary records, we can read both */
+		binary = BinaryFormat.binary.equals(constants.get(ZephyrOpen.wireFormat));
+	}
+
+	/** @return true if commands are sent as binary records */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Build a command from a received packet
+	 *
+	 * @param data
+	 *            holding the packet
+	 * @param offset
+	 *            of the first byte
+	 * @param length
+	 *            of the packet
+	 * @return the command, or null if the packet is empty or malformed
+	 */
+	public Command decode(byte[] data, int offset, int length) {
+
+		if (length <= 0)
+			return null;
+
+		/** binary records start with a magic byte, anything else is xml */
+		if (BinaryFormat.isBinary(data, offset, length))
+			return BinaryFormat.decode(data, offset, length);
+
+		return xmlParser.parse(data, offset, length);
+	}
+
+	/**
+	 * Decode every command in a received datagram, batched or not, and
+	 * dispatch each one.
+	 *
+	 * @param sendersIp
+	 *            the address the datagram came from
+	 * @param data
+	 *            holding the datagram
+	 * @param offset
+	 *            of the first byte
+	 * @param length
+	 *            of the datagram
+	 */
+	public void dispatch(String sendersIp, byte[] data, int offset, int length) {
+
+		if (length <= 0 || data[offset] != BATCH) {
+			dispatchPacket(sendersIp, data, offset, length);
+			return;
+		}
+
+		/** walk the length prefixed packets */
+		final int end = offset + length;
+		int index = offset + BATCH_HEADER;
+		while (index + LENGTH_SIZE <= end) {
+
+			int size = ((data[index] & 0xFF) << 8) | (data[index + 1] & 0xFF);
+			index += LENGTH_SIZE;
+
+			if (index + size > end) {
+				constants.error("truncated batch from: " + sendersIp, this);
+				return;
+			}
+
+			dispatchPacket(sendersIp, data, index, size);
+			index += size;
+		}
+	}
+
+	/** decode and dispatch one packet */
+	private void dispatchPacket(String sendersIp, byte[] data, int offset, int length) {
+
+		/** show everything when watching the network */
+		if (!constants.getBoolean(ZephyrOpen.showLAN) && !wanted(data, offset, length))
+			return;
+
+		/** build a command straight from the packet's bytes, xml or binary */
+		Command command = decode(data, offset, length);
+
+		if (constants.getBoolean(ZephyrOpen.showLAN))
+			System.out.println(sendersIp + " " + command);
+
+		/** dispatch the command */
+		CommandDispatcher.dispatch(command);
+	}
+
+	/**
+	 * Look at the type, user and deviceName in the raw packet
+	 * 
+	 * @return false if no API in this process wants the packet
+	 */
+	private boolean wanted(byte[] data, int offset, int length) {
+
+		final boolean binary = BinaryFormat.isBinary(data, offset, length);
+
+		String type = null;
+		if (binary)
+			type = BinaryFormat.getType(data, offset, length);
+		else
+			type = getType(data, offset, length);
+
+		/** let the parser deal with it */
+		if (type == null)
+			return true;
+
+		ApiFactory.Route route = apiFactory.getRoute(type);
+		if (route.getApis().length == 0)
+			return false;
+
+		if (!route.isFiltered())
+			return true;
+
+		String user = null;
+		String deviceName = null;
+
+		if (binary) {
+			if (route.needsUser())
+				user = BinaryFormat.find(data, offset, length, ZephyrOpen.user);
+			if (route.needsDeviceName())
+				deviceName = BinaryFormat.find(data, offset, length, ZephyrOpen.deviceName);
+		} else {
+			if (route.needsUser())
+				user = find(data, offset, length, USER_TAG);
+			if (route.needsDeviceName())
+				deviceName = find(data, offset, length, DEVICE_TAG);
+		}
+
+		return route.accepts(user, deviceName);
+	}
+
+	/** @return the outer most tag of an xml packet, or null */
+	private static String getType(byte[] data, int offset, int length) {
+
+		final int end = offset + length;
+
+		int start = offset;
+		while (start < end && (data[start] & 0xFF) <= ' ')
+			start++;
+
+		if (start == end || data[start] != '<')
+			return null;
+
+		for (int i = start + 1; i < end; i++)
+			if (data[i] == '>')
+				return new String(data, start + 1, i - start - 1, UTF8);
+
+		return null;
+	}
+
+	/** @return the value following the open tag in an xml packet, or null */
+	private static String find(byte[] data, int offset, int length, byte[] tag) {
+
+		final int end = offset + length - tag.length;
+
+		for (int i = offset; i <= end; i++) {
+
+			if (data[i] != '<')
+				continue;
+
+			int j = 1;
+			while (j < tag.length && data[i + j] == tag[j])
+				j++;
+
+			if (j < tag.length)
+				continue;
+
+			/** value runs up to the close tag */
+			final int start = i + tag.length;
+			for (int k = start; k < offset + length; k++)
+				if (data[k] == '<')
+					return new String(data, start, k - start, UTF8);
+
+			return null;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Write the command into the buffer in the configured wire format
+	 *
+	 * @param command
+	 *            to encode
+	 * @param buffer
+	 *            to write into, starting at its position
+	 * @return false if the command does not fit in the buffer
+	 */
+	public boolean encode(Command command, ByteBuffer buffer) {
+
+		if (binary)
+			return BinaryFormat.encode(command, buffer);
+
+		return command.writeXML(buffer);
+	}
+}
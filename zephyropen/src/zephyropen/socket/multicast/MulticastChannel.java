@@ -2,16 +2,17 @@ package zephyropen.socket.multicast;
 
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 import zephyropen.api.ZephyrOpen;
 import zephyropen.command.Command;
-import zephyropen.command.CommandDispatcher;
 import zephyropen.socket.AbstractOutputChannel;
 import zephyropen.socket.InputChannel;
 import zephyropen.socket.OutputChannel;
-import zephyropen.xml.Parser;
-import zephyropen.xml.XMLParser;
+import zephyropen.socket.PacketCodec;
 
 /**
  * <p> Package : zephyr.framework.socket.multicast 
@@ -27,7 +28,6 @@ public class MulticastChannel extends AbstractOutputChannel implements OutputCha
 	final private static int BUFFER_SIZE = 1024;
 	
 	private static MulticastChannel singleton = null;
-	private static Parser xmlParser = new XMLParser();
 	
 	private MulticastSocket serverSocket = null;
 	private InetAddress groupAddress = null;
@@ -35,6 +35,12 @@ public class MulticastChannel extends AbstractOutputChannel implements OutputCha
 	private String local = null;
 	private Thread server = null;
 	private boolean loopback = true;
+	private PacketCodec codec = null;
+	
+	/** outgoing commands are written straight into one direct buffer and sent with nio */
+	private DatagramChannel sendChannel = null;
+	private InetSocketAddress groupSocketAddress = null;
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
 	
 
 	/** @return a reference to this singleton class. */
@@ -76,6 +82,10 @@ public class MulticastChannel extends AbstractOutputChannel implements OutputCha
 			/** join this group */
 			serverSocket.joinGroup(groupAddress);
 
+			/** sending side */
+			sendChannel = DatagramChannel.open();
+			groupSocketAddress = new InetSocketAddress(groupAddress, groupPort);
+
 			/** find our ip */
 			local = constants.get(ZephyrOpen.localAddress);
 
@@ -83,6 +93,9 @@ public class MulticastChannel extends AbstractOutputChannel implements OutputCha
 			constants.shutdown(e);
 		}
 
+		/** parser and wire format via properties file */
+		codec = new PacketCodec();
+
 		/** start thread, block wait on input from socket */
 		server = new Thread(this);
 		server.setDaemon(true);
@@ -104,30 +117,31 @@ public class MulticastChannel extends AbstractOutputChannel implements OutputCha
    
       try {
 
+         /** 
+          * re-use the data buffering objects, this is the only reading thread 
+          * and each packet is parsed into a command before the next receive 
+          */
+         final byte[] buf = new byte[BUFFER_SIZE];
+         final DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
          /** loop until system termination */
          while (true) {
 
-            byte[] buf = new byte[BUFFER_SIZE];
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
-
-            /** block on command input */
+            /** block on command input, room for a full buffer again */
+            packet.setLength(buf.length);
             serverSocket.receive(packet);       
-            	
-            String input = new String(packet.getData()).trim();
+
+            /** only look at the bytes received */
+            final int length = packet.getLength();
 
             /** get sending node's addr */
             String sendersIp = ((InetAddress) packet.getAddress()).getHostAddress();
-            
-            if(constants.getBoolean(ZephyrOpen.showLAN)) System.out.println(sendersIp + " " + input);
-            
+
             /** test the input */
-            if( valid(input, sendersIp) ) {  
-            	
-           		/** build a command and dispatch it to the API */
-            	Command command = xmlParser.parse(input); 
+            if( valid(length, sendersIp) ) {  
             	
-            	/** dispatch the command */
-            	CommandDispatcher.dispatch(command); 	
+           		/** build commands straight from the packet's bytes and dispatch them */
+            	codec.dispatch(sendersIp, buf, 0, length); 
                 	
             }
          }
@@ -140,50 +154,68 @@ public class MulticastChannel extends AbstractOutputChannel implements OutputCha
    /**
     * Is this a valid xml command to be dispatch? and ARE WE IN LOOPBACK MODE? 
     * 
-    * @param data is the packet to check 
+    * @param length is the size of the packet to check 
     * @param ip is the sender's IP
     * @return true if this packet should be parsed and dispatched 
     */
-   private boolean valid(String data, String ip){
+   private boolean valid(int length, String ip){
 	   
        /** ignore messages coming from us? */
+       if( ! valid(ip)) return false;
+  
+       /** sanity test */
+       if( length <= 0) return false;
+    
+       return true; 
+   }
+
+   /**
+    * ARE WE IN LOOPBACK MODE? 
+    * 
+    * @param ip is the sender's IP
+    * @return false if this packet came from us and loop back is off 
+    */
+   private boolean valid(String ip){
+
        if( ! loopback) {
     	   if( local.equals(ip) ) {   		  
     		   return false;		    
     	   }
        }
-  
-       /** sanity test */
-       if( data == null) return false;
-       if( data.equals("")) return false;
-    
-       return true; 
+
+       return true;
    }
    
-	/** @param out is a string to write to the socket */
-	private void write(String out) {
+
+	/** @param command to send to the channel  */
+	public void write(Command command) {
+		prepare(command);
+		send(command);
+	}
+
+	/** @param command to encode as xml or a binary record and write to the socket */
+	private synchronized void send(Command command) {
+
+		sendBuffer.clear();
+
+		if (!codec.encode(command, sendBuffer)) {
+			constants.error("command too large to send: " + command.getType(), this);
+			return;
+		}
+
+		sendBuffer.flip();
+		send(sendBuffer);
+	}
+
+	/** @param packet is an encoded datagram to write to the socket */
+	public synchronized void send(ByteBuffer packet) {
 		try {
 
 			/** dump it into the socket */
-			serverSocket.send(new DatagramPacket(out.getBytes(), out.length(), groupAddress, groupPort));
+			sendChannel.send(packet, groupSocketAddress);
 
 		} catch (Exception e) {
 			constants.error("unable to write to socket", this); 
 		}
 	}
-
-	/** @param command to send to the channel  */
-	public void write(Command command) {
-	
-		if( constants.getBoolean(ZephyrOpen.showLAN))
-			command.add(ZephyrOpen.sender, constants.get(ZephyrOpen.localAddress) ); 
-		
-		if( constants.getBoolean(ZephyrOpen.externalLookup))
-			command.add(ZephyrOpen.externalAddress, constants.get(ZephyrOpen.externalAddress));
-		
-		if(command.get(ZephyrOpen.user) == null)
-			command.add(ZephyrOpen.user, constants.get(ZephyrOpen.user));
-		
-		write(command.toString());
-	}
 }
@@ -114,9 +114,9 @@ public class OSCChannel extends AbstractOutputChannel implements OutputChannel,
 
 		try {
 
-			/** create new packet */
-			DatagramPacket packet = new DatagramPacket(out.getBytes(), out
-					.length(), InetAddress.getLocalHost(), port);
+			/** create new packet, sized in bytes not chars */
+			byte[] bytes = out.getBytes();
+			DatagramPacket packet = new DatagramPacket(bytes, bytes.length, InetAddress.getLocalHost(), port);
 
 			/** dump it into the socket */
 			serverSocket.send(packet);
@@ -0,0 +1,322 @@
+package zephyropen.socket.multicast;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+
+import zephyropen.api.PrototypeFactory;
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+import zephyropen.device.wii.WiiUtils;
+import zephyropen.socket.AbstractOutputChannel;
+import zephyropen.socket.InputChannel;
+import zephyropen.socket.OutputChannel;
+import zephyropen.socket.PacketCodec;
+
+/**
+ * One thread, one {@link Selector}, many sockets.
+ * <p>
+ * Joins the framework's multicast group, any extra groups listed in the
+ * properties file, and optionally listens for OSC messages, all on
+ * non-blocking datagram channels read by a single thread. Bus and group
+ * packets are decoded and dispatched like the {@link MulticastChannel} does,
+ * OSC messages are collected into wii commands and sent on the bus like the
+ * {@link OSCChannel} does.
+ * <p>
+ * Set <code>networkService=selector</code> to use it, with optional
+ * properties:
+ *
+ * <pre>
+ *   groups=230.0.0.2:4445,230.0.0.3:4446
+ *   oscPort=9000
+ *   networkInterface=eth0
+ * </pre>
+ *
+ * Needs java 7 for joining multicast groups on a datagram channel.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class SelectorChannel extends AbstractOutputChannel implements OutputChannel, InputChannel, Runnable {
+
+	/** global constants */
+	final private static ZephyrOpen constants = ZephyrOpen.getReference();
+	final private static int BUFFER_SIZE = 1024;
+
+	private static SelectorChannel singleton = null;
+
+	private Selector selector = null;
+	private DatagramChannel busChannel = null;
+	private InetSocketAddress busAddress = null;
+	private NetworkInterface networkInterface = null;
+	private PacketCodec codec = null;
+	private boolean loopback = true;
+	private Thread server = null;
+
+	/** one channel for each port listened on, groups on the same port share it */
+	private Hashtable<Integer, DatagramChannel> ports = new Hashtable<Integer, DatagramChannel>();
+
+	/** re-use the data buffering objects, only the selector thread reads */
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/** OSC values are collected until a full wii command can be sent */
+	private Command feedback = new Command(PrototypeFactory.wii);
+
+	/** @return a reference to this singleton class. */
+	public static SelectorChannel getReference() {
+
+		if (singleton == null) {
+			singleton = new SelectorChannel();
+		}
+		return singleton;
+	}
+
+	/** Constructor */
+	private SelectorChannel() {
+
+		/** configuration via properties file, terminate if not found! */
+		String address = constants.get(ZephyrOpen.address);
+		String port = constants.get(ZephyrOpen.port);
+
+		if (address == null || port == null) {
+			constants.error("address or port not found in properties file, terminate!", this);
+			constants.shutdown();
+		}
+
+		try {
+
+			selector = Selector.open();
+			networkInterface = findInterface();
+			if (networkInterface == null) {
+				constants.error("no multicast interface: " + constants.get(ZephyrOpen.networkInterface), this);
+				constants.shutdown();
+			}
+
+			/** the framework's bus, also used for sending */
+			busAddress = new InetSocketAddress(InetAddress.getByName(address), Integer.parseInt(port));
+			busChannel = join(busAddress);
+
+			/** any other groups to listen to */
+			String groups = constants.get(ZephyrOpen.groups);
+			if (groups != null) {
+				String[] list = groups.split(",");
+				for (int i = 0; i < list.length; i++)
+					join(parseAddress(list[i].trim()));
+			}
+
+			/** OSC messages on a plain udp port */
+			int oscPort = constants.getInteger(ZephyrOpen.oscPort);
+			if (oscPort != ZephyrOpen.ERROR) {
+				DatagramChannel osc = DatagramChannel.open();
+				osc.bind(new InetSocketAddress(oscPort));
+				osc.configureBlocking(false);
+				osc.register(selector, SelectionKey.OP_READ, Boolean.TRUE);
+				constants.info("listening for OSC on port: " + oscPort, this);
+			}
+
+		} catch (Exception e) {
+			constants.shutdown(e);
+		}
+
+		/** parser and wire format via properties file */
+		codec = new PacketCodec();
+
+		/** start thread, block wait on the selector */
+		server = new Thread(this);
+		server.setDaemon(true);
+		server.start();
+	}
+
+	/** @return the interface named in the properties, or the one for our host, null if none can multicast */
+	private static NetworkInterface findInterface() throws Exception {
+
+		String name = constants.get(ZephyrOpen.networkInterface);
+		if (name != null)
+			return NetworkInterface.getByName(name);
+
+		NetworkInterface local = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+		if (local != null && local.supportsMulticast())
+			return local;
+
+		/** first one that is up and can do multicast */
+		for (Enumeration<NetworkInterface> e = NetworkInterface.getNetworkInterfaces(); e.hasMoreElements();) {
+			NetworkInterface next = e.nextElement();
+			if (next.isUp() && next.supportsMulticast())
+				return next;
+		}
+
+		return null;
+	}
+
+	/** @return the socket address from an 'address:port' string */
+	private static InetSocketAddress parseAddress(String group) throws Exception {
+
+		int colon = group.lastIndexOf(':');
+		if (colon < 0)
+			throw new Exception("group needs address:port, found: " + group);
+
+		return new InetSocketAddress(InetAddress.getByName(group.substring(0, colon)),
+				Integer.parseInt(group.substring(colon + 1)));
+	}
+
+	/**
+	 * Join the multicast group, opening a channel for its port if we are not
+	 * already listening on it
+	 *
+	 * @return the channel the group was joined on
+	 */
+	private DatagramChannel join(InetSocketAddress group) throws Exception {
+
+		DatagramChannel channel = ports.get(group.getPort());
+		if (channel == null) {
+
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.bind(new InetSocketAddress(group.getPort()));
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, Boolean.FALSE);
+
+			ports.put(group.getPort(), channel);
+		}
+
+		channel.join(group.getAddress(), networkInterface);
+		constants.info("joined group: " + group, this);
+
+		return channel;
+	}
+
+	/** @param enable will enable or disable loop back if we want to talk to ourselves */
+	public void setLoopback(boolean enable) {
+		loopback = enable;
+	}
+
+	/** Executes this threaded class. */
+	public void run() {
+
+		try {
+
+			/** loop until system termination */
+			while (true) {
+
+				/** block until any of the sockets have input */
+				selector.select();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid() || !key.isReadable())
+						continue;
+
+					/** read everything waiting on this socket */
+					DatagramChannel channel = (DatagramChannel) key.channel();
+					boolean osc = (Boolean) key.attachment();
+					while (true) {
+
+						receiveBuffer.clear();
+						SocketAddress from = channel.receive(receiveBuffer);
+						if (from == null)
+							break;
+
+						if (osc)
+							receiveOSC();
+						else
+							receive(((InetSocketAddress) from).getAddress().getHostAddress());
+					}
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			constants.shutdown(e);
+		}
+	}
+
+	/** decode and dispatch the packet now in the receive buffer */
+	private void receive(String sendersIp) {
+
+		final int length = receiveBuffer.position();
+		if (length <= 0 || !valid(sendersIp))
+			return;
+
+		/** build commands straight from the packet's bytes and dispatch them */
+		codec.dispatch(sendersIp, receiveBuffer.array(), 0, length);
+	}
+
+	/** add the OSC message now in the receive buffer to the wii command */
+	private void receiveOSC() {
+
+		if (WiiUtils.parseOSC(receiveBuffer.array(), feedback) == null)
+			return;
+
+		/** wait for a full XML data data */
+		if (feedback.get(PrototypeFactory.accel) != null && feedback.get(PrototypeFactory.pitch) != null
+				&& feedback.get(PrototypeFactory.roll) != null && feedback.get(PrototypeFactory.yaw) != null) {
+
+			// send it, then clear it
+			write(feedback);
+			feedback.flush();
+		}
+	}
+
+	/**
+	 * ARE WE IN LOOPBACK MODE?
+	 *
+	 * @param ip
+	 *            is the sender's IP
+	 * @return false if this packet came from us and loop back is off
+	 */
+	private boolean valid(String ip) {
+
+		if (!loopback) {
+			if (ip.equals(constants.get(ZephyrOpen.localAddress))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** @param command to send to the framework's group */
+	public void write(Command command) {
+		prepare(command);
+		send(command);
+	}
+
+	/** @param command to encode as xml or a binary record and write to the bus */
+	private synchronized void send(Command command) {
+
+		sendBuffer.clear();
+
+		if (!codec.encode(command, sendBuffer)) {
+			constants.error("command too large to send: " + command.getType(), this);
+			return;
+		}
+
+		sendBuffer.flip();
+		send(sendBuffer);
+	}
+
+	/** @param packet is an encoded datagram to write to the bus */
+	public synchronized void send(ByteBuffer packet) {
+		try {
+
+			/** dump it into the socket */
+			busChannel.send(packet, busAddress);
+
+		} catch (Exception e) {
+			constants.error("unable to write to socket", this);
+		}
+	}
+}
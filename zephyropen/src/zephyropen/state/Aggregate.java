@@ -0,0 +1,149 @@
+package zephyropen.state;
+
+/**
+ * Count, min, max, mean and last value of a fixed set of fields over a window
+ * of time, kept as a ring of panes.
+ * <p>
+ * Values go into the newest pane. {@link #advance()} closes it and opens a
+ * new one in place of the oldest, so a window of one pane tumbles and a window
+ * of several slides by one pane at a time. Reading the window combines the
+ * panes, adding a value never does.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class Aggregate {
+
+	private final String[] fields;
+
+	/** [pane][field] */
+	private final int[][] counts;
+	private final double[][] mins;
+	private final double[][] maxs;
+	private final double[][] sums;
+	private final double[][] lasts;
+
+	/** the pane taking values */
+	private int current = 0;
+
+	/**
+	 * @param fields
+	 *            to summarise, values are added by index into this
+	 * @param panes
+	 *            in the window, 1 for a tumbling window
+	 */
+	public Aggregate(String[] fields, int panes) {
+
+		if (panes < 1)
+			throw new IllegalArgumentException("need at least one pane: " + panes);
+
+		this.fields = fields;
+		counts = new int[panes][fields.length];
+		mins = new double[panes][fields.length];
+		maxs = new double[panes][fields.length];
+		sums = new double[panes][fields.length];
+		lasts = new double[panes][fields.length];
+	}
+
+	/** */
+	public String[] getFields() {
+		return fields;
+	}
+
+	/** add a value of the given field to the newest pane */
+	public void add(int field, double value) {
+
+		if (Double.isNaN(value))
+			return;
+
+		final int[] count = counts[current];
+		if (count[field] == 0 || value < mins[current][field])
+			mins[current][field] = value;
+		if (count[field] == 0 || value > maxs[current][field])
+			maxs[current][field] = value;
+
+		sums[current][field] += value;
+		lasts[current][field] = value;
+		count[field]++;
+	}
+
+	/** close the newest pane, the oldest is emptied and takes its place */
+	public void advance() {
+
+		current = (current + 1) % counts.length;
+
+		for (int field = 0; field < fields.length; field++) {
+			counts[current][field] = 0;
+			sums[current][field] = 0;
+		}
+	}
+
+	/** @return values of the field in the window */
+	public int getCount(int field) {
+
+		int count = 0;
+		for (int pane = 0; pane < counts.length; pane++)
+			count += counts[pane][field];
+
+		return count;
+	}
+
+	/** @return values of every field in the window */
+	public int getCount() {
+
+		int count = 0;
+		for (int field = 0; field < fields.length; field++)
+			count += getCount(field);
+
+		return count;
+	}
+
+	/** @return the smallest value of the field in the window, NaN if none */
+	public double getMin(int field) {
+
+		double min = Double.NaN;
+		for (int pane = 0; pane < counts.length; pane++)
+			if (counts[pane][field] > 0 && (Double.isNaN(min) || mins[pane][field] < min))
+				min = mins[pane][field];
+
+		return min;
+	}
+
+	/** @return the largest value of the field in the window, NaN if none */
+	public double getMax(int field) {
+
+		double max = Double.NaN;
+		for (int pane = 0; pane < counts.length; pane++)
+			if (counts[pane][field] > 0 && (Double.isNaN(max) || maxs[pane][field] > max))
+				max = maxs[pane][field];
+
+		return max;
+	}
+
+	/** @return the mean of the field in the window, NaN if none */
+	public double getMean(int field) {
+
+		double sum = 0;
+		int count = 0;
+		for (int pane = 0; pane < counts.length; pane++) {
+			sum += sums[pane][field];
+			count += counts[pane][field];
+		}
+
+		if (count == 0)
+			return Double.NaN;
+
+		return sum / count;
+	}
+
+	/** @return the newest value of the field in the window, NaN if none */
+	public double getLast(int field) {
+
+		for (int i = 0; i < counts.length; i++) {
+			int pane = (current - i + counts.length) % counts.length;
+			if (counts[pane][field] > 0)
+				return lasts[pane][field];
+		}
+
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,55 @@
+package zephyropen.state;
+
+/**
+ * A summary of the points that fell in one span of time: min, max, mean and
+ * how many there were.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class Bucket implements Entry {
+
+	private final long start;
+	private final double min;
+	private final double max;
+	private final double mean;
+	private final int count;
+
+	/** */
+	public Bucket(long start, double min, double max, double mean, int count) {
+		this.start = start;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.count = count;
+	}
+
+	/** @return the start of the span, in milliseconds */
+	public long getTimestamp() {
+		return start;
+	}
+
+	/** */
+	public double getMin() {
+		return min;
+	}
+
+	/** */
+	public double getMax() {
+		return max;
+	}
+
+	/** */
+	public double getMean() {
+		return mean;
+	}
+
+	/** @return how many points were summarised */
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return start + " min=" + min + " max=" + max + " mean=" + mean + " count=" + count;
+	}
+}
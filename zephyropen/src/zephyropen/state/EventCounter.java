@@ -1,5 +1,6 @@
 package zephyropen.state;
 
+import zephyropen.api.ZephyrOpen;
 import zephyropen.state.TimedEntry;
 
 /**
@@ -7,12 +8,21 @@ import zephyropen.state.TimedEntry;
  * <p> Creates a list of data points that are time stamped as they are added. This class
  * will also maintain a calculated max, min and average value as entries are added and
  * removed over time.  
+ * <p> Inserted points are run through a peak detector with hysteresis: a peak is
+ * only confirmed once the data has fallen the threshold below it, a trough once
+ * it has risen the threshold above it, so noise smaller than the threshold never
+ * turns the trend. Peaks closer together than the minimum distance keep only the
+ * higher. The most recent peaks are kept for callers, eg. to count breaths per
+ * minute, and each confirmed turn is marked as an inflection on its point.
  * <p/> Package : Created: September 30, 2008
  * <p>
  * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
  */
 public class EventCounter extends State {
 	
+	/** recent peaks kept */
+	public static final int MAX_PEAKS = 64;
+	
 	/** averaging */
 	protected int bufferCount = 0;
 	protected int bufferWeigth = 0;
@@ -25,6 +35,24 @@ public class EventCounter extends State {
 	private double changeThreashold = 0;
 	private int inflectionPoints = 0;
 	
+	/** least time between peaks in milliseconds */
+	private long minPeakDistance = 0;
+	
+	/** points inserted since the last reset, numbers the points */
+	private long inserted = 0;
+	
+	/** highest point since the last trough, or lowest since the last peak */
+	private double extreme = 0;
+	private long extremeTime = 0;
+	private long extremeNumber = 0;
+	
+	/** recent peaks, a ring, and the point number of the newest */
+	private final double[] peakValues = new double[MAX_PEAKS];
+	private final long[] peakTimes = new long[MAX_PEAKS];
+	private int peakHead = 0;
+	private int peakCount = 0;
+	private long lastPeakNumber = -1;
+	
 	/**
 	 * <p/>Creates a list of data points that are time stamped as they are added. This class
 	 * will also maintain a calculated max, min and average value as entries are added and
@@ -33,9 +61,10 @@ public class EventCounter extends State {
 	 * @param name of the data set 
 	 * @param size of the data set (older records removed as newer are added)  
 	 * @param avg is the number of data points to collect before computing an average and inserting this as a single datapoint. 
+	 * @param threshold is how far the data must turn back before a peak or trough is confirmed 
 	 */
 	public EventCounter( String name, int size, int avg, double threshold ) {
-		super( name );
+		super( name, size );
 		this.bufferWeigth = avg;
 		this.changeThreashold = threshold;
 	}
@@ -62,15 +91,31 @@ public class EventCounter extends State {
 		return changeThreashold;
 	}
 	
+	/** @param millis is the least time between two peaks, the lower of two closer ones is dropped */
+	public void setMinPeakDistance(long millis){
+		if(millis < 0) return;
+		minPeakDistance = millis;
+	}
+	
+	public long getMinPeakDistance(){
+		return minPeakDistance;
+	}
+	
+	/** @return how many points in the window are marked as inflections */
+	public synchronized int getInflectionPoints(){
+		return inflectionPoints;
+	}
+	
 	/**
 	 * Add new entry, push out older entries when full 
 	 * 
 	 * @param timedEntry to be added 
 	 */
-	public void add(TimedEntry timedEntry) {
+	public synchronized void add(TimedEntry timedEntry) {
 
 		// sanity test 
 		if (timedEntry == null) return;
+		if (Double.isNaN(timedEntry.getValueDouble())) return;
 		
 		// add to buffer 
 		buffer += timedEntry.getValueDouble();
@@ -79,11 +124,8 @@ public class EventCounter extends State {
 		// full so clear buffer 
 		if( bufferCount == bufferWeigth ){	
 			
-			// track input speed
-			last = System.currentTimeMillis();	
-			
-			// add this to the data points 
-			insert(new TimedEntry(buffer / bufferWeigth));
+			// add this to the data points and the history tiers, as one write 
+			add(buffer / bufferWeigth, System.currentTimeMillis());
 			
 			// reset 
 			bufferCount = 0;
@@ -92,68 +134,196 @@ public class EventCounter extends State {
 	}
 	
 	/** add a record to the list */ 
-	private void insert(TimedEntry timedEntry){
+	protected synchronized void insert(double value, long time){
 			
-		// push out oldest record
-		if (list.size() == list.capacity()){
+		beginWrite();
+		try {
 			
-			// keep track of inflection points
-			if(getOldest().isInflection()) 
+			// keep track of inflection points pushed out with the oldest record
+			if (size() == capacity() && isInflection(0)) 
 				inflectionPoints--;
+		
+			// add, re calculate average
+			super.insert(value, time);
+			trend(value, time, inserted++);
 			
-			// take it out 
-			list.removeElementAt(0);
+		} finally {
+			endWrite();
 		}
+	}
+	
+	/** clear the trend and peaks along with the data */
+	public synchronized void reset() {
 		
-		// added ok, re calculate average
-		if (list.add(timedEntry)){
-			calculateAverage();
-			trend();
+		beginWrite();
+		try {
+			
+			direction = TimedEntry.ZERO;
+			inflectionPoints = 0;
+			inserted = 0;
+			peakHead = 0;
+			peakCount = 0;
+			lastPeakNumber = -1;
+			
+			super.reset();
+			
+		} finally {
+			endWrite();
 		}
 	}
 	
-	/** track changes in this data stream */
-	private void trend() {
+	/** track changes in this data stream, one step per point */
+	private void trend(final double value, final long time, final long number) {
 		
-		// sanity test
-		if( list.size() < 3 ) return;
+		// first point, nothing to compare with yet 
+		if( direction == TimedEntry.ZERO && number == 0 ){
+			setExtreme(value, time, number);
+			return;
+		}
 		
-		// System.out.println("i: " + inflectionPoints );
-			
-		final double value = getNewest().getValueDouble();
-		final TimedEntry lastEntry = getIndex( list.size() - 2 );
-		final double last = lastEntry.getValueDouble();
-		final double delta = (value - last); 
-	
-		// changing enough to care? 
-		if( Math.abs(delta) < changeThreashold ) {
-			//System.out.print("low: " + delta);
-			return; 
+		// not sure of the trend yet, follow the first move bigger than the threshold 
+		if( direction == TimedEntry.ZERO ){
+			if( value - extreme >= changeThreashold && value != extreme ){
+				direction = TimedEntry.UP;
+				setExtreme(value, time, number);
+			} else if( extreme - value >= changeThreashold && value != extreme ){
+				direction = TimedEntry.DOWN;
+				setExtreme(value, time, number);
+			}
+			return;
 		}
 		
-		// increasing 
-		if( value > last ){
-				
-			// changing direction? 
-			if( direction == TimedEntry.DOWN ){
-				getNewest().setInflection(TimedEntry.UP);
-				System.out.println(" UP " + delta + " i: " + inflectionPoints);
-				inflectionPoints++;
+		// rising, the peak is confirmed once we fall far enough below it 
+		if( direction == TimedEntry.UP ){
+			
+			if( value > extreme ){
+				setExtreme(value, time, number);
+			} else if( extreme - value >= changeThreashold && value != extreme ){
+				peak(extreme, extremeTime, extremeNumber);
+				direction = TimedEntry.DOWN;
+				setExtreme(value, time, number);
 			}
-				
+			return;
+		}
+		
+		// falling, the trough is confirmed once we rise far enough above it 
+		if( value < extreme ){
+			setExtreme(value, time, number);
+		} else if( value - extreme >= changeThreashold && value != extreme ){
+			mark(extremeNumber, TimedEntry.UP);
 			direction = TimedEntry.UP;
+			setExtreme(value, time, number);
+		}
+	}
+	
+	private void setExtreme(double value, long time, long number){
+		extreme = value;
+		extremeTime = time;
+		extremeNumber = number;
+	}
+	
+	/** record a confirmed peak, unless too close to the last one and lower */
+	private void peak(double value, long time, long number){
+		
+		if( peakCount > 0 ){
 			
-		// decreasing 
-		} else {
-			
-			// changing direction? 
-			if( direction == TimedEntry.UP ){
-				getNewest().setInflection(TimedEntry.DOWN);
-				System.out.println(" DOWN " + delta + " i: " + inflectionPoints);
-				inflectionPoints++;
-			}
+			final int newest = (peakHead + peakCount - 1) % MAX_PEAKS;
+			if( time - peakTimes[newest] < minPeakDistance ){
 				
-			direction = TimedEntry.DOWN;
+				if( value <= peakValues[newest] )
+					return;
+				
+				// too close, keep only the higher 
+				mark(lastPeakNumber, TimedEntry.ZERO);
+				peakValues[newest] = value;
+				peakTimes[newest] = time;
+				lastPeakNumber = number;
+				mark(number, TimedEntry.DOWN);
+				return;
+			}
+		}
+		
+		if( peakCount == MAX_PEAKS ){
+			peakHead = (peakHead + 1) % MAX_PEAKS;
+			peakCount--;
+		}
+		
+		final int index = (peakHead + peakCount) % MAX_PEAKS;
+		peakValues[index] = value;
+		peakTimes[index] = time;
+		peakCount++;
+		
+		lastPeakNumber = number;
+		mark(number, TimedEntry.DOWN);
+	}
+	
+	/** set or clear the inflection mark on a point, if it is still held */
+	private void mark(long number, short turn){
+		
+		final long index = number - (inserted - size());
+		if( index < 0 || index >= size() ) return;
+		
+		final boolean was = isInflection((int) index);
+		setInflection((int) index, turn);
+		
+		if( !was && turn != TimedEntry.ZERO ) inflectionPoints++;
+		if( was && turn == TimedEntry.ZERO ) inflectionPoints--;
+	}
+	
+	/** @return the recent peaks, oldest first, marked as turning down */
+	public TimedEntry[] getPeaks() {
+		
+		for (int i = 0; i < OPTIMISTIC_READS; i++) {
+
+			final int start = beginRead();
+			if (start >= 0) {
+				TimedEntry[] copy = copyPeaks();
+				if (validate(start))
+					return copy;
+			}
+
+			Thread.yield();
+		}
+
+		synchronized (this) {
+			return copyPeaks();
 		}
 	}
+	
+	/** @return a copy that may be torn if a write is under way */
+	private TimedEntry[] copyPeaks() {
+		
+		final int first = peakHead;
+		final int count = Math.min(peakCount, MAX_PEAKS);
+		
+		TimedEntry[] peaks = new TimedEntry[count];
+		for (int i = 0; i < count; i++) {
+			int index = (first + i) % MAX_PEAKS;
+			peaks[i] = new TimedEntry(peakValues[index], peakTimes[index], TimedEntry.DOWN);
+		}
+		
+		return peaks;
+	}
+	
+	/**
+	 * @param window in milliseconds, back from the newest peak 
+	 * @return peaks per minute over the window, eg. breaths per minute, or 0 if fewer than two peaks 
+	 */
+	public double getPeakRate(long window) {
+		
+		final TimedEntry[] peaks = getPeaks();
+		if (peaks.length < 2)
+			return 0;
+		
+		final long newest = peaks[peaks.length - 1].getTimestamp();
+		int first = peaks.length - 1;
+		while (first > 0 && newest - peaks[first - 1].getTimestamp() <= window)
+			first--;
+		
+		final long span = newest - peaks[first].getTimestamp();
+		if (span <= 0)
+			return 0;
+		
+		return (peaks.length - 1 - first) * (double) ZephyrOpen.ONE_MINUTE / span;
+	}
 }
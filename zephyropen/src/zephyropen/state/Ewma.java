@@ -0,0 +1,89 @@
+package zephyropen.state;
+
+/**
+ * Exponentially weighted moving average with a half life in time rather than
+ * in points, so it decays the same however fast the device sends. A point
+ * half life old has half the weight of a new one.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class Ewma implements Statistic {
+
+	public static final String NAME = "ewma";
+
+	private static final double LN2 = Math.log(2);
+
+	private final long halfLife;
+
+	private double value = Double.NaN;
+
+	private long last = 0;
+
+	/**
+	 * @param halfLife
+	 *            in milliseconds
+	 */
+	public Ewma(long halfLife) {
+
+		if (halfLife <= 0)
+			throw new IllegalArgumentException("half life must be positive: " + halfLife);
+
+		this.halfLife = halfLife;
+	}
+
+	/** @return the name for an average of the given half life */
+	public static String getName(long halfLife) {
+		return NAME + halfLife;
+	}
+
+	/** */
+	public String getName() {
+		return getName(halfLife);
+	}
+
+	/** */
+	public long getHalfLife() {
+		return halfLife;
+	}
+
+	/** */
+	public void add(double value, long time) {
+
+		if (Double.isNaN(this.value)) {
+			this.value = value;
+			last = time;
+			return;
+		}
+
+		/** points out of order count as arriving together */
+		final long elapsed = Math.max(0, time - last);
+		final double alpha = 1 - Math.exp(-LN2 * elapsed / halfLife);
+
+		this.value += alpha * (value - this.value);
+		last = Math.max(last, time);
+	}
+
+	/** */
+	public void clear() {
+		value = Double.NaN;
+		last = 0;
+	}
+
+	/** */
+	public Statistic copy() {
+		Ewma copy = new Ewma(halfLife);
+		copy.value = value;
+		copy.last = last;
+		return copy;
+	}
+
+	/** @return the average, or NaN if empty */
+	public double getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return getName() + "=" + value;
+	}
+}
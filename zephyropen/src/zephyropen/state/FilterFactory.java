@@ -5,10 +5,19 @@
  */
 package zephyropen.state;
 
+import java.util.Hashtable;
+
 import zephyropen.api.PrototypeFactory;
 import zephyropen.api.ZephyrOpen;
 import zephyropen.command.Command;
 
+/**
+ * Range checks for the data tags of each device type.
+ * <p>
+ * {@link #filter(Command)} runs for every logged command, so the checks for a
+ * type are compiled once into a {@link Chain} of tags and bounds, and only
+ * built again when the configuration changes.
+ */
 public class FilterFactory {
 
 	private static final int MIN_POINTS = 3;
@@ -18,40 +27,53 @@ public class FilterFactory {
 	private static final String heartMax = "heartMax";
 	private static final String heartMin = "heartMim";
 
+	/** filters hold no state, share them */
+	private static final Filter HEART_BEAT = new HeartBeatFilter();
+	private static final Filter HEART_RATE = new HeartRateFilter();
+	private static final Filter DEFAULT = new DefaultFilter();
+	private static final Filter TEMPERATURE = new TemperatureFilter();
+	private static final Filter RESPIRATION = new RespirationFilter();
+	private static final Filter NONE = new NoFilter();
+
+	/** stop junk types filling the cache */
+	private static final int MAX_CHAINS = 256;
+
+	/** compiled checks by device type */
+	private static Hashtable<String, Chain> chains = new Hashtable<String, Chain>();
 	
 	public static Filter create(String type) {
 
 		if (type.equals(PrototypeFactory.beat))
-			return new HeartBeatFilter();
+			return HEART_BEAT;
 
 		if (type.equals(PrototypeFactory.heart))
-			return new HeartRateFilter();
+			return HEART_RATE;
 
 		if (type.equals(PrototypeFactory.accel))
-			return new DefaultFilter();
+			return DEFAULT;
 
 		if (type.equals(PrototypeFactory.roll))
-			return new DefaultFilter();
+			return DEFAULT;
 
 		if (type.equals(PrototypeFactory.pitch))
-			return new DefaultFilter();
+			return DEFAULT;
 
 		if (type.equals(PrototypeFactory.yaw))
-			return new DefaultFilter();
+			return DEFAULT;
 
 		if (type.equals(PrototypeFactory.posture))
-			return new NoFilter();
+			return NONE;
 
 		if (type.equals(PrototypeFactory.temperature))
-			return new TemperatureFilter();
+			return TEMPERATURE;
 
 		if (type.equals(PrototypeFactory.respiration))
-			return new RespirationFilter();
+			return RESPIRATION;
 
 		if (type.equals(PrototypeFactory.connection))
-			return new NoFilter();
+			return NONE;
 
-		return new NoFilter();
+		return NONE;
 	}
 
 	/**
@@ -62,56 +84,95 @@ public class FilterFactory {
 	 * @return true if this command have vauld rang4s of data
 	 */
 	public static boolean filter(Command command) {
+		return getChain(command.getType()).filter(command);
+	}
 
-		// get this API's command prototype to test against this command
-		String[] commandPrototype = PrototypeFactory.create(command.getType());
+	/** @return the compiled checks for the type, built again if the configuration changed */
+	private static Chain getChain(String type) {
 
-		Filter filter = null;
-		double value = 0;
-		String tag = null;
-		
-		// index into the prototype
-		for (int index = 0; index < commandPrototype.length; index++) {
+		if (type == null)
+			type = "";
 
-			tag = command.get(commandPrototype[index]);
-			if (tag != null) {
+		final int version = constants.getVersion();
 
-				filter = create(commandPrototype[index]);
-				if (filter != null) {
+		Chain chain = chains.get(type);
+		if (chain == null || chain.version != version) {
+			if (chains.size() >= MAX_CHAINS)
+				chains.clear();
 
-					try {
+			chain = new Chain(type, version);
+			chains.put(type, chain);
+		}
 
-						value = Double.parseDouble(tag);
+		return chain;
+	}
 
-					} catch (NumberFormatException e) {
-						constants.error(e.getMessage());
-						constants.error("for: " + command.get(commandPrototype[index]));
-					}
+	/** the prototype's tags, each with its filter's bounds read once */
+	private static class Chain {
 
-					/* check for old test patterns */
-					String[] parsed = new String[2];
-					if (tag.indexOf('.') > 0) {
-						parsed = tag.split("\\.");
-						if (parsed[1].length() > 0) {
-							// constants.error("too many dec: " + parsed[1] + " str: " + value);
-							return false;
-						}
-					}
+		private final int version;
+		private final String[] tags;
+		private final Filter[] filters;
+		private final double[] mins;
+		private final double[] maxs;
 
-					if (!inRange(value, filter)) {
+		Chain(String type, int version) {
 
-						constants.error(commandPrototype[index] + " "
-								+ filter.getClass().getName()
-								+ " not in range: " + value);
+			this.version = version;
 
-						return false;
+			// get this API's command prototype to test against this command
+			tags = PrototypeFactory.create(type);
+			filters = new Filter[tags.length];
+			mins = new double[tags.length];
+			maxs = new double[tags.length];
 
-					}
-				}
+			for (int index = 0; index < tags.length; index++) {
+				filters[index] = create(tags[index]);
+				mins[index] = filters[index].getMin();
+				maxs[index] = filters[index].getMax();
 			}
 		}
 
-		return true;
+		boolean filter(Command command) {
+
+			String tag = null;
+			double value = 0;
+
+			// index into the prototype
+			for (int index = 0; index < tags.length; index++) {
+
+				tag = command.get(tags[index]);
+				if (tag == null)
+					continue;
+
+				/* check for old test patterns, digits after the point */
+				final int dot = tag.indexOf('.');
+				if (dot > 0 && dot + 1 < tag.length() && tag.charAt(dot + 1) != '.') {
+					// constants.error("too many dec: " + tag);
+					return false;
+				}
+
+				try {
+
+					value = Double.parseDouble(tag);
+
+				} catch (NumberFormatException e) {
+					constants.error(e.getMessage());
+					constants.error("for: " + tag);
+					return false;
+				}
+
+				if (value > maxs[index] || value < mins[index]) {
+
+					constants.error(tags[index] + " " + filters[index].getClass().getName()
+							+ " not in range: " + value);
+
+					return false;
+				}
+			}
+
+			return true;
+		}
 	}
 
 	/**
@@ -0,0 +1,358 @@
+package zephyropen.state;
+
+/**
+ * Heart rate variability over a sliding window of beat to beat (RR)
+ * intervals.
+ * <p>
+ * The time domain measures, RMSSD, SDNN and pNN50, are kept from running
+ * sums updated as each interval is added, so adding costs the same however
+ * long the window. The frequency domain, LF and HF band power, is estimated
+ * with a Lomb-Scargle periodogram, which copes with the uneven spacing of
+ * beats, and is only worked out when asked for, at most once every
+ * {@link #SPECTRUM_BEATS} beats.
+ * <p>
+ * Intervals outside {@link #MIN_RR} to {@link #MAX_RR} are dropped as
+ * artifacts. Successive differences are not taken across a dropped interval
+ * or a {@link #breakSequence()}. A dropped interval, and time passed to
+ * {@link #skip(double)}, still move the beat clock on, so the periodogram sees
+ * the gap rather than beats squeezed together.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class HeartRateVariability {
+
+	/** about five minutes of beats, the usual short term window */
+	public static final int DEFAULT_BEATS = 300;
+
+	/** plausible interval range in milliseconds */
+	public static final double MIN_RR = 300;
+	public static final double MAX_RR = 2000;
+
+	/** frequency bands in Hz */
+	public static final double LF_LOW = 0.04;
+	public static final double LF_HIGH = 0.15;
+	public static final double HF_HIGH = 0.4;
+
+	/** periodogram from STEP to NYQUIST, in Hz */
+	private static final double STEP = 0.005;
+	private static final double NYQUIST = 0.5;
+
+	/** new beats before the spectrum is worked out again */
+	public static final int SPECTRUM_BEATS = 5;
+
+	/** least beats before the spectrum means anything */
+	private static final int MIN_SPECTRUM_BEATS = 32;
+
+	/** intervals in ms, beat times in seconds, and the squared difference to the one before */
+	private final double[] intervals;
+	private final double[] times;
+	private final double[] differences;
+	private final boolean[] successive;
+
+	private int head = 0;
+	private int count = 0;
+
+	/** running sums over the window */
+	private double sum = 0;
+	private double sumSquares = 0;
+	private double differenceSum = 0;
+	private int differenceCount = 0;
+	private int nn50 = 0;
+	private int sinceSum = 0;
+
+	/** time of the newest beat in seconds, and its interval, NaN after a break */
+	private double clock = 0;
+	private double previous = Double.NaN;
+
+	/** beats added ever, and when the spectrum was last worked out */
+	private long added = 0;
+	private long spectrumAt = -1;
+	private double lf = Double.NaN;
+	private double hf = Double.NaN;
+
+	/** */
+	public HeartRateVariability() {
+		this(DEFAULT_BEATS);
+	}
+
+	/** @param beats is the window length */
+	public HeartRateVariability(int beats) {
+		intervals = new double[beats];
+		times = new double[beats];
+		differences = new double[beats];
+		successive = new boolean[beats];
+	}
+
+	/** @return the array index of the i'th oldest beat */
+	private int physical(int i) {
+		int index = head + i;
+		if (index >= intervals.length)
+			index -= intervals.length;
+		return index;
+	}
+
+	/**
+	 * Add the next interval
+	 *
+	 * @param rr
+	 *            in milliseconds
+	 * @return false if dropped as an artifact
+	 */
+	public boolean add(double rr) {
+
+		if (Double.isNaN(rr) || rr < MIN_RR || rr > MAX_RR) {
+			skip(rr);
+			return false;
+		}
+
+		/** push out the oldest */
+		int index = 0;
+		if (count == intervals.length) {
+			index = head;
+			head = physical(1);
+			remove(index);
+		} else {
+			index = physical(count);
+			count++;
+		}
+
+		clock += rr / 1000;
+		intervals[index] = rr;
+		times[index] = clock;
+		successive[index] = !Double.isNaN(previous);
+		differences[index] = 0;
+
+		sum += rr;
+		sumSquares += rr * rr;
+
+		if (successive[index]) {
+			final double difference = rr - previous;
+			differences[index] = difference * difference;
+			differenceSum += differences[index];
+			differenceCount++;
+			if (Math.abs(difference) > 50)
+				nn50++;
+		}
+
+		previous = rr;
+		added++;
+
+		/** shed rounding once per window */
+		if (++sinceSum >= intervals.length)
+			resum();
+
+		return true;
+	}
+
+	/** take the beat at the given index out of the sums */
+	private void remove(int index) {
+
+		sum -= intervals[index];
+		sumSquares -= intervals[index] * intervals[index];
+
+		if (successive[index]) {
+			differenceSum -= differences[index];
+			differenceCount--;
+			if (differences[index] > 2500)
+				nn50--;
+		}
+	}
+
+	/** add up the window again */
+	private void resum() {
+
+		sum = 0;
+		sumSquares = 0;
+		differenceSum = 0;
+		for (int i = 0; i < count; i++) {
+			int index = physical(i);
+			sum += intervals[index];
+			sumSquares += intervals[index] * intervals[index];
+			if (successive[index])
+				differenceSum += differences[index];
+		}
+
+		sinceSum = 0;
+	}
+
+	/** the next interval does not follow on from the last, eg. after lost packets */
+	public void breakSequence() {
+		previous = Double.NaN;
+	}
+
+	/**
+	 * Beats were missed, the next interval does not follow on from the last
+	 *
+	 * @param millis
+	 *            of time passed without beats, ignored if not positive
+	 */
+	public void skip(double millis) {
+
+		breakSequence();
+
+		if (millis > 0 && !Double.isInfinite(millis))
+			clock += millis / 1000;
+	}
+
+	/** forget every beat */
+	public void clear() {
+		head = 0;
+		count = 0;
+		sum = 0;
+		sumSquares = 0;
+		differenceSum = 0;
+		differenceCount = 0;
+		nn50 = 0;
+		sinceSum = 0;
+		clock = 0;
+		previous = Double.NaN;
+		added = 0;
+		spectrumAt = -1;
+		lf = Double.NaN;
+		hf = Double.NaN;
+	}
+
+	/** @return beats in the window */
+	public int size() {
+		return count;
+	}
+
+	/** @return beats added since made or cleared, including those pushed out */
+	public long getAdded() {
+		return added;
+	}
+
+	/** @return mean interval in ms, NaN if empty */
+	public double getMeanRr() {
+
+		if (count == 0)
+			return Double.NaN;
+
+		return sum / count;
+	}
+
+	/** @return standard deviation of the intervals in ms, NaN with fewer than two */
+	public double getSdnn() {
+
+		if (count < 2)
+			return Double.NaN;
+
+		final double variance = (sumSquares - sum * sum / count) / (count - 1);
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/** @return root mean square of successive differences in ms, NaN if none */
+	public double getRmssd() {
+
+		if (differenceCount == 0)
+			return Double.NaN;
+
+		return Math.sqrt(Math.max(0, differenceSum) / differenceCount);
+	}
+
+	/** @return percent of successive differences over 50 ms, NaN if none */
+	public double getPnn50() {
+
+		if (differenceCount == 0)
+			return Double.NaN;
+
+		return 100.0 * nn50 / differenceCount;
+	}
+
+	/** @return low frequency power in ms squared, NaN if too few beats */
+	public double getLf() {
+		spectrum();
+		return lf;
+	}
+
+	/** @return high frequency power in ms squared, NaN if too few beats */
+	public double getHf() {
+		spectrum();
+		return hf;
+	}
+
+	/** @return LF over HF, NaN if either is not known */
+	public double getLfHf() {
+		spectrum();
+
+		if (Double.isNaN(lf) || Double.isNaN(hf) || hf == 0)
+			return Double.NaN;
+
+		return lf / hf;
+	}
+
+	/**
+	 * Lomb-Scargle periodogram of the window, scaled so the power over all
+	 * frequencies equals the variance, then summed over each band.
+	 */
+	private void spectrum() {
+
+		if (spectrumAt >= 0 && added - spectrumAt < SPECTRUM_BEATS)
+			return;
+
+		spectrumAt = added;
+		lf = Double.NaN;
+		hf = Double.NaN;
+
+		if (count < MIN_SPECTRUM_BEATS)
+			return;
+
+		final double mean = sum / count;
+		final double variance = (sumSquares - sum * sum / count) / (count - 1);
+		if (variance <= 0)
+			return;
+
+		double total = 0;
+		double low = 0;
+		double high = 0;
+
+		for (double frequency = STEP; frequency <= NYQUIST; frequency += STEP) {
+
+			final double omega = 2 * Math.PI * frequency;
+
+			/** time offset that makes the sine and cosine terms independent */
+			double sin2 = 0;
+			double cos2 = 0;
+			for (int i = 0; i < count; i++) {
+				final double angle = 2 * omega * times[physical(i)];
+				sin2 += Math.sin(angle);
+				cos2 += Math.cos(angle);
+			}
+			final double tau = Math.atan2(sin2, cos2) / (2 * omega);
+
+			double yc = 0;
+			double ys = 0;
+			double cc = 0;
+			double ss = 0;
+			for (int i = 0; i < count; i++) {
+				final int index = physical(i);
+				final double angle = omega * (times[index] - tau);
+				final double c = Math.cos(angle);
+				final double s = Math.sin(angle);
+				final double y = intervals[index] - mean;
+				yc += y * c;
+				ys += y * s;
+				cc += c * c;
+				ss += s * s;
+			}
+
+			double power = 0;
+			if (cc > 0)
+				power += yc * yc / cc;
+			if (ss > 0)
+				power += ys * ys / ss;
+
+			total += power;
+			if (frequency >= LF_LOW && frequency < LF_HIGH)
+				low += power;
+			else if (frequency >= LF_HIGH && frequency < HF_HIGH)
+				high += power;
+		}
+
+		if (total <= 0)
+			return;
+
+		lf = variance * low / total;
+		hf = variance * high / total;
+	}
+}
@@ -0,0 +1,187 @@
+package zephyropen.state;
+
+/**
+ * Approximate percentiles of every point added, in fixed memory.
+ * <p>
+ * Points are counted in buckets whose width grows with the value, so any
+ * percentile read back is within the given relative accuracy of a point
+ * actually added. Magnitudes below {@link #MIN_VALUE} count as zero, those
+ * above {@link #MAX_VALUE} go in the last bucket. Two sketches with the same
+ * accuracy can be merged.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class QuantileSketch implements Statistic {
+
+	public static final String NAME = "quantiles";
+
+	/** default relative accuracy, one percent */
+	public static final double DEFAULT_ACCURACY = 0.01;
+
+	/** smallest and largest magnitudes told apart */
+	public static final double MIN_VALUE = 1e-3;
+	public static final double MAX_VALUE = 1e6;
+
+	private final double accuracy;
+	private final double gamma;
+	private final double logGamma;
+
+	/** bucket index of MIN_VALUE */
+	private final int offset;
+
+	/** counts of positive and negative points by bucket, and of zeros */
+	private final long[] positive;
+	private final long[] negative;
+	private long zeros = 0;
+	private long count = 0;
+
+	/** */
+	public QuantileSketch() {
+		this(DEFAULT_ACCURACY);
+	}
+
+	/**
+	 * @param accuracy
+	 *            relative error allowed, between 0 and 1
+	 */
+	public QuantileSketch(double accuracy) {
+
+		if (accuracy <= 0 || accuracy >= 1)
+			throw new IllegalArgumentException("accuracy must be between 0 and 1: " + accuracy);
+
+		this.accuracy = accuracy;
+		gamma = (1 + accuracy) / (1 - accuracy);
+		logGamma = Math.log(gamma);
+		offset = (int) Math.floor(Math.log(MIN_VALUE) / logGamma);
+
+		final int size = (int) Math.ceil(Math.log(MAX_VALUE) / logGamma) - offset + 1;
+		positive = new long[size];
+		negative = new long[size];
+	}
+
+	/** */
+	public String getName() {
+		return NAME;
+	}
+
+	/** */
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	/** @return the bucket for a magnitude of at least MIN_VALUE */
+	private int index(double magnitude) {
+
+		int index = (int) Math.ceil(Math.log(magnitude) / logGamma) - offset;
+		if (index >= positive.length)
+			index = positive.length - 1;
+
+		return index;
+	}
+
+	/** @return the magnitude a bucket stands for */
+	private double value(int index) {
+		return 2 * Math.pow(gamma, index + offset) / (gamma + 1);
+	}
+
+	/** */
+	public void add(double value, long time) {
+
+		if (Double.isNaN(value))
+			return;
+
+		if (value >= MIN_VALUE)
+			positive[index(value)]++;
+		else if (value <= -MIN_VALUE)
+			negative[index(-value)]++;
+		else
+			zeros++;
+
+		count++;
+	}
+
+	/** fold in the points counted by another sketch of the same accuracy */
+	public void merge(QuantileSketch other) {
+
+		if (other.accuracy != accuracy)
+			throw new IllegalArgumentException("can't merge sketches of different accuracy");
+
+		for (int i = 0; i < positive.length; i++) {
+			positive[i] += other.positive[i];
+			negative[i] += other.negative[i];
+		}
+
+		zeros += other.zeros;
+		count += other.count;
+	}
+
+	/** */
+	public void clear() {
+		for (int i = 0; i < positive.length; i++) {
+			positive[i] = 0;
+			negative[i] = 0;
+		}
+
+		zeros = 0;
+		count = 0;
+	}
+
+	/** */
+	public Statistic copy() {
+		QuantileSketch copy = new QuantileSketch(accuracy);
+		System.arraycopy(positive, 0, copy.positive, 0, positive.length);
+		System.arraycopy(negative, 0, copy.negative, 0, negative.length);
+		copy.zeros = zeros;
+		copy.count = count;
+		return copy;
+	}
+
+	/** */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param quantile
+	 *            between 0 and 1, 0.5 is the median
+	 * @return the approximate value, or NaN if empty
+	 */
+	public double getQuantile(double quantile) {
+
+		if (count == 0 || quantile < 0 || quantile > 1)
+			return Double.NaN;
+
+		final long rank = (long) (quantile * (count - 1));
+		long seen = 0;
+
+		/** most negative first */
+		for (int i = negative.length - 1; i >= 0; i--) {
+			seen += negative[i];
+			if (seen > rank)
+				return -value(i);
+		}
+
+		seen += zeros;
+		if (seen > rank)
+			return 0;
+
+		for (int i = 0; i < positive.length; i++) {
+			seen += positive[i];
+			if (seen > rank)
+				return value(i);
+		}
+
+		return value(positive.length - 1);
+	}
+
+	/** @return the approximate value, given as a percentile from 0 to 100 */
+	public double getPercentile(double percentile) {
+		return getQuantile(percentile / 100);
+	}
+
+	@Override
+	public String toString() {
+		return NAME + " n=" + count + " p5=" + getPercentile(5) + " p50=" + getPercentile(50) + " p95="
+				+ getPercentile(95);
+	}
+}
@@ -0,0 +1,94 @@
+package zephyropen.state;
+
+/**
+ * Mean and variance of every point added, with Welford's update so the
+ * result stays accurate over long sessions. Two can be merged, to combine
+ * sessions or devices.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class RunningVariance implements Statistic {
+
+	public static final String NAME = "variance";
+
+	private long count = 0;
+	private double mean = 0;
+
+	/** sum of squared differences from the mean */
+	private double m2 = 0;
+
+	/** */
+	public String getName() {
+		return NAME;
+	}
+
+	/** */
+	public void add(double value, long time) {
+		count++;
+		final double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+	}
+
+	/** fold in the points summarised by another */
+	public void merge(RunningVariance other) {
+
+		if (other.count == 0)
+			return;
+
+		final long total = count + other.count;
+		final double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		count = total;
+	}
+
+	/** */
+	public void clear() {
+		count = 0;
+		mean = 0;
+		m2 = 0;
+	}
+
+	/** */
+	public Statistic copy() {
+		RunningVariance copy = new RunningVariance();
+		copy.count = count;
+		copy.mean = mean;
+		copy.m2 = m2;
+		return copy;
+	}
+
+	/** */
+	public long getCount() {
+		return count;
+	}
+
+	/** @return the mean, or NaN if empty */
+	public double getMean() {
+
+		if (count == 0)
+			return Double.NaN;
+
+		return mean;
+	}
+
+	/** @return the sample variance, or NaN with fewer than two points */
+	public double getVariance() {
+
+		if (count < 2)
+			return Double.NaN;
+
+		return m2 / (count - 1);
+	}
+
+	/** */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	@Override
+	public String toString() {
+		return NAME + " n=" + count + " mean=" + getMean() + " sd=" + getStandardDeviation();
+	}
+}
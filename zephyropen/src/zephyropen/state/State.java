@@ -1,6 +1,6 @@
 package zephyropen.state;
 
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import zephyropen.api.ZephyrOpen;
 import zephyropen.state.Entry;
@@ -15,6 +15,28 @@ import zephyropen.util.Utils;
  * class will also maintain a calculated max, min and average value as entries
  * are added and removed over time.
  * <p/>
+ * The values, time stamps and inflection marks are kept in parallel arrays
+ * used as a circular buffer, so adding a point and pushing out the oldest
+ * never moves the others. Index 0 is always the oldest point.
+ * <p/>
+ * The average is kept from a running sum, and the max and min from two
+ * monotonic queues of the points that can still become the window's max or
+ * min, so adding a point costs the same however many are held.
+ * <p/>
+ * With {@link #keepHistory()} every added point is also summarised into 10
+ * second, 1 minute and 10 minute buckets, kept for hours after the points
+ * themselves are pushed out. {@link #getRange(long, long, int)} reads any
+ * span of the session back at the resolution asked for.
+ * <p/>
+ * {@link Statistic}s added with {@link #addStatistic(Statistic)} are updated
+ * with every point inserted. {@link #keepStatistics()} adds the standard set:
+ * variance, a percentile sketch and moving averages at three half lives.
+ * <p/>
+ * One thread at a time may change a State, writers synchronize on it. Readers
+ * such as the render thread take a {@link #snapshot()} instead, which copies
+ * the points and stats without locking and retries if a write happened
+ * during the copy, so drawing never stalls the thread adding points.
+ * <p/>
  * Package : Created: September 30, 2008
  * <p/>
  * 
@@ -34,8 +56,61 @@ public class State {
 
 	private static final int SKIPPED_TOO_MANY = 4;
 
-	/** hold data points */
-	protected Vector<TimedEntry> list = null;
+	/** history bucket widths, and how many of each are kept */
+	public static final long[] TIER_WIDTHS = { 10000, ZephyrOpen.ONE_MINUTE, ZephyrOpen.TEN_MINUTES };
+
+	public static final int TIER_SIZE = 360;
+
+	/** half lives of the moving averages kept by keepStatistics() */
+	public static final long[] EWMA_HALF_LIVES = { 10000, ZephyrOpen.ONE_MINUTE, ZephyrOpen.FIVE_MINUTES };
+
+	/** optimistic copies tried before a reader waits for the writer */
+	protected static final int OPTIMISTIC_READS = 8;
+
+	/** hold data points, oldest at head */
+	private double[] values = null;
+
+	private long[] times = null;
+
+	private short[] inflections = null;
+
+	/** physical index of the oldest point, and how many points are held */
+	private int head = 0;
+
+	private int count = 0;
+
+	/** points added since the last reset, the newest point is number total - 1 */
+	private long total = 0;
+
+	/** running sum, re-added from scratch once per window to shed rounding */
+	private double sum = 0;
+
+	private int sinceSum = 0;
+
+	/** point numbers of max and min candidates, oldest first, as rings */
+	private long[] maxQueue = null;
+
+	private int maxHead = 0;
+
+	private int maxSize = 0;
+
+	private long[] minQueue = null;
+
+	private int minHead = 0;
+
+	private int minSize = 0;
+
+	/** down sampled history, finest first, null until asked for */
+	private Tier[] tiers = null;
+
+	/** updated on every insert, replaced not changed when one is added */
+	private Statistic[] statistics = new Statistic[0];
+
+	/** odd while a write is under way, bumped twice by every write */
+	private final AtomicInteger version = new AtomicInteger();
+
+	/** nested write depth, only touched holding the lock */
+	private int writing = 0;
 
 	/** keep basic stats */
 	protected String name = "no name";
@@ -70,16 +145,26 @@ public class State {
 	 * 
 	 */
 	public State(String text, int size) {
-		list = new Vector<TimedEntry>(size);
+		values = new double[size];
+		times = new long[size];
+		inflections = new short[size];
+		maxQueue = new long[size];
+		minQueue = new long[size];
 		name = text;
 		filter = FilterFactory.create(name);
 	}
 
 	/** */
 	public State(String text) {
-		list = new Vector<TimedEntry>(DEFAULT_RECORDS);
-		name = text;
-		filter = FilterFactory.create(name);
+		this(text, DEFAULT_RECORDS);
+	}
+
+	/** @return the array index of the i'th oldest point */
+	private int physical(int i) {
+		int index = head + i;
+		if (index >= values.length)
+			index -= values.length;
+		return index;
 	}
 
 	/**
@@ -89,8 +174,25 @@ public class State {
 	 * @param value
 	 *            is the new current value of this state object
 	 */
-	public void update(double value) {
-		list.setElementAt(new TimedEntry(String.valueOf(value)), list.size() - 1);
+	public synchronized void update(double value) {
+		
+		if (count == 0)
+			return;
+		
+		beginWrite();
+		try {
+
+			int newest = physical(count - 1);
+			values[newest] = value;
+			times[newest] = System.currentTimeMillis();
+			inflections[newest] = TimedEntry.ZERO;
+
+			// a changed value can reorder the max and min queues
+			calculateAverage();
+
+		} finally {
+			endWrite();
+		}
 
 		// track input speed
 		last = System.currentTimeMillis();
@@ -99,9 +201,14 @@ public class State {
 	/**
 	 * Use the current time for this state objects latest update
 	 */
-	public void touch() {
+	public synchronized void touch() {
 		
-		list.setElementAt(new TimedEntry(getNewestValueString()), list.size() - 1);
+		if (count == 0)
+			return;
+		
+		beginWrite();
+		times[physical(count - 1)] = System.currentTimeMillis();
+		endWrite();
 
 		// track input speed
 		last = System.currentTimeMillis();
@@ -111,13 +218,13 @@ public class State {
 	public void add(TimedEntry timedEntry) {
 
 		//double input = Double.valueOf(timedEntry.getValueString());
-		insert(timedEntry);
+		add(timedEntry.getValueDouble(), timedEntry.getTimestamp());
 		/*
 		// ignore any extreme input
 		if (FilterFactory.inRange(input, filter)) {
 
 			// only update the timestamp because value is the same
-			if (constants.getBoolean(pack) && (list.size() > PACK_AFTER)) {
+			if (constants.getBoolean(pack) && (size() > PACK_AFTER)) {
 				if (Double.compare(input, getNewestValue()) == 0) {
 					touch();
 					return;
@@ -142,25 +249,421 @@ public class State {
 		
 	}
 
+	/** Add a value with the current time */
+	public void add(double value) {
+		add(value, System.currentTimeMillis());
+	}
+
+	/** Add a value with the given time stamp, NaN is not a value and is skipped */
+	public synchronized void add(double value, long time) {
+
+		if (Double.isNaN(value))
+			return;
+
+		beginWrite();
+		try {
+			insert(value, time);
+			history(value, time);
+		} finally {
+			endWrite();
+		}
+	}
+
+	/** Start summarising added points into the history tiers */
+	public synchronized void keepHistory() {
+
+		if (tiers != null)
+			return;
+
+		Tier[] list = new Tier[TIER_WIDTHS.length];
+		for (int i = 0; i < list.length; i++)
+			list[i] = new Tier(TIER_WIDTHS[i], TIER_SIZE);
+
+		beginWrite();
+		tiers = list;
+		endWrite();
+	}
+
+	/** @return true if the history tiers are kept */
+	public boolean hasHistory() {
+		return tiers != null;
+	}
+
+	/** drop the history tiers, they start again if kept */
+	public synchronized void clearHistory() {
+		if (tiers == null)
+			return;
+
+		beginWrite();
+		for (int i = 0; i < tiers.length; i++)
+			tiers[i].clear();
+		endWrite();
+	}
+
+	/** Update the statistic with every point inserted from now on */
+	public synchronized void addStatistic(Statistic statistic) {
+
+		Statistic[] list = new Statistic[statistics.length + 1];
+		System.arraycopy(statistics, 0, list, 0, statistics.length);
+		list[statistics.length] = statistic;
+
+		beginWrite();
+		statistics = list;
+		endWrite();
+	}
+
+	/** Keep variance, percentiles and moving averages, if not already */
+	public synchronized void keepStatistics() {
+
+		if (find(statistics, RunningVariance.NAME) != null)
+			return;
+
+		addStatistic(new RunningVariance());
+		addStatistic(new QuantileSketch());
+		for (int i = 0; i < EWMA_HALF_LIVES.length; i++)
+			addStatistic(new Ewma(EWMA_HALF_LIVES[i]));
+	}
+
+	/** @return consistent copies of the statistics kept */
+	public Statistic[] getStatistics() {
+
+		for (int i = 0; i < OPTIMISTIC_READS; i++) {
+
+			final int start = beginRead();
+			if (start >= 0) {
+				Statistic[] copy = copyStatistics();
+				if (validate(start))
+					return copy;
+			}
+
+			Thread.yield();
+		}
+
+		synchronized (this) {
+			return copyStatistics();
+		}
+	}
+
+	/** @return copies that may be torn if a write is under way */
+	private Statistic[] copyStatistics() {
+
+		final Statistic[] list = statistics;
+		Statistic[] copy = new Statistic[list.length];
+		for (int i = 0; i < list.length; i++)
+			copy[i] = list[i].copy();
+
+		return copy;
+	}
+
+	/** @return the statistic of the given name, or null */
+	static Statistic find(Statistic[] list, String name) {
+		for (int i = 0; i < list.length; i++)
+			if (list[i].getName().equals(name))
+				return list[i];
+
+		return null;
+	}
+
+	/** @return standard deviation of the points inserted, NaN if not kept */
+	public double getStandardDeviation() {
+		return getStandardDeviation(getStatistics());
+	}
+
+	/** @return the percentile, 0 to 100, of the points inserted, NaN if not kept */
+	public double getPercentile(double percentile) {
+		return getPercentile(getStatistics(), percentile);
+	}
+
+	/** @return the moving average with the given half life, NaN if not kept */
+	public double getEwma(long halfLife) {
+		return getEwma(getStatistics(), halfLife);
+	}
+
+	/** */
+	static double getStandardDeviation(Statistic[] list) {
+		RunningVariance variance = (RunningVariance) find(list, RunningVariance.NAME);
+		if (variance == null)
+			return Double.NaN;
+
+		return variance.getStandardDeviation();
+	}
+
+	/** */
+	static double getPercentile(Statistic[] list, double percentile) {
+		QuantileSketch sketch = (QuantileSketch) find(list, QuantileSketch.NAME);
+		if (sketch == null)
+			return Double.NaN;
+
+		return sketch.getPercentile(percentile);
+	}
+
+	/** */
+	static double getEwma(Statistic[] list, long halfLife) {
+		Ewma ewma = (Ewma) find(list, Ewma.getName(halfLife));
+		if (ewma == null)
+			return Double.NaN;
+
+		return ewma.getValue();
+	}
+
+	/**
+	 * Mark the start of a change, readers copying now will retry. Writes may
+	 * nest, call only holding the lock on this object, and always pair with
+	 * {@link #endWrite()}.
+	 */
+	protected final void beginWrite() {
+		if (writing++ == 0)
+			version.incrementAndGet();
+	}
+
+	/** Mark the end of a change */
+	protected final void endWrite() {
+		if (--writing == 0)
+			version.incrementAndGet();
+	}
+
+	/** @return the version to hand to {@link #validate(int)}, or -1 if a write is under way */
+	protected final int beginRead() {
+		final int start = version.get();
+		if ((start & 1) == 1)
+			return -1;
+
+		return start;
+	}
+
+	/**
+	 * The compare and set is a full fence, so every read made during the copy
+	 * is done before the version is checked.
+	 * 
+	 * @return true if no write started since {@link #beginRead()}
+	 */
+	protected final boolean validate(int start) {
+		return start >= 0 && version.compareAndSet(start, start);
+	}
+
+	/**
+	 * Copy the points and stats without stopping the writer. Retries while
+	 * writes get in the way, and only waits for the lock if they keep doing
+	 * so.
+	 * 
+	 * @return a consistent copy, oldest point first
+	 */
+	public StateSnapshot snapshot() {
+
+		for (int i = 0; i < OPTIMISTIC_READS; i++) {
+
+			final int start = beginRead();
+			if (start >= 0) {
+				StateSnapshot copy = copy();
+				if (validate(start))
+					return copy;
+			}
+
+			Thread.yield();
+		}
+
+		synchronized (this) {
+			return copy();
+		}
+	}
+
+	/** @return a copy that may be torn if a write is under way */
+	private StateSnapshot copy() {
+
+		final int first = head;
+		final int size = Math.min(count, values.length);
+
+		double[] data = new double[size];
+		long[] stamps = new long[size];
+		for (int i = 0; i < size; i++) {
+			int index = (first + i) % values.length;
+			data[i] = values[index];
+			stamps[i] = times[index];
+		}
+
+		int low = minIndex;
+		int high = maxIndex;
+		if (low >= size)
+			low = 0;
+		if (high >= size)
+			high = 0;
+
+		return new StateSnapshot(name, data, stamps, min, max, average, low, high, copyStatistics());
+	}
+
+	/** add the point to every history tier */
+	private void history(double value, long time) {
+		if (tiers != null)
+			for (int i = 0; i < tiers.length; i++)
+				tiers[i].add(value, time);
+	}
+
+	/** @return time of the oldest point or bucket held, or 0 if empty */
+	public long getHistoryStart() {
+
+		long start = 0;
+		if (count > 0)
+			start = getTime(0);
+
+		if (tiers != null)
+			for (int i = 0; i < tiers.length; i++)
+				if (tiers[i].size() > 0 && (start == 0 || tiers[i].getStart(0) < start))
+					start = tiers[i].getStart(0);
+
+		return start;
+	}
+
+	/**
+	 * Summarise a span of time into at most the given number of buckets of
+	 * equal width. Reads the raw points if they reach back to the start of
+	 * the span, otherwise the finest history tier that does, or the coarsest
+	 * if none do. Buckets no points fell in are left out.
+	 * 
+	 * @param from
+	 *            start time in milliseconds
+	 * @param to
+	 *            end time in milliseconds
+	 * @param points
+	 *            is the most buckets to return
+	 * @return the buckets, oldest first
+	 */
+	public Bucket[] getRange(long from, long to, int points) {
+
+		if (points <= 0 || to < from)
+			return new Bucket[0];
+
+		for (int i = 0; i < OPTIMISTIC_READS; i++) {
+
+			final int start = beginRead();
+			if (start >= 0) {
+				Bucket[] buckets = range(from, to, points);
+				if (validate(start))
+					return buckets;
+			}
+
+			Thread.yield();
+		}
+
+		synchronized (this) {
+			return range(from, to, points);
+		}
+	}
+
+	/** @return the buckets, may be torn if a write is under way */
+	private Bucket[] range(long from, long to, int points) {
+
+		final Tier[] tiers = this.tiers;
+		final int count = Math.min(this.count, values.length);
+
+		final long width = Math.max(1, (to - from + points) / points);
+		final double[] mins = new double[points];
+		final double[] maxs = new double[points];
+		final double[] sums = new double[points];
+		final int[] counts = new int[points];
+
+		Tier tier = null;
+		if (tiers != null && (count == 0 || getTime(0) > from)) {
+			for (int i = 0; i < tiers.length; i++) {
+				tier = tiers[i];
+				if (tier.size() > 0 && tier.getStart(0) <= from)
+					break;
+			}
+		}
+
+		if (tier == null) {
+			for (int i = 0; i < count; i++) {
+				final long time = getTime(i);
+				if (time >= from && time <= to)
+					merge(mins, maxs, sums, counts, (int) ((time - from) / width), values[physical(i)], values[physical(i)],
+							values[physical(i)], 1);
+			}
+		} else {
+			for (int i = 0; i < tier.size(); i++) {
+				final long time = tier.getStart(i);
+				if (time + tier.getWidth() > from && time <= to)
+					merge(mins, maxs, sums, counts, (int) ((Math.max(time, from) - from) / width), tier.getMin(i),
+							tier.getMax(i), tier.getSum(i), tier.getCount(i));
+			}
+		}
+
+		int used = 0;
+		for (int i = 0; i < points; i++)
+			if (counts[i] > 0)
+				used++;
+
+		Bucket[] buckets = new Bucket[used];
+		used = 0;
+		for (int i = 0; i < points; i++)
+			if (counts[i] > 0)
+				buckets[used++] = new Bucket(from + i * width, mins[i], maxs[i], sums[i] / counts[i], counts[i]);
+
+		return buckets;
+	}
+
+	/** fold a point or bucket into the i'th result slot */
+	private static void merge(double[] mins, double[] maxs, double[] sums, int[] counts, int i, double min,
+			double max, double sum, int n) {
+
+		if (i >= counts.length)
+			i = counts.length - 1;
+
+		if (counts[i] == 0 || min < mins[i])
+			mins[i] = min;
+		if (counts[i] == 0 || max > maxs[i])
+			maxs[i] = max;
+		sums[i] += sum;
+		counts[i] += n;
+	}
+
 	//
 	// add new entry and update timer 
 	// 
-	private void insert(TimedEntry timedEntry) {
+	protected synchronized void insert(double value, long time) {
 		
-		// constants.info("insert: " + timedEntry.toString() + " size: " + size());
+		// constants.info("insert: " + value + " size: " + size());
 
-		// push out oldest record
-		if (list.size() == list.capacity())
-			list.removeElementAt(0);
+		beginWrite();
+		try {
+			store(value, time);
+		} finally {
+			endWrite();
+		}
 
-		// add it to the list and update stats
-		if (list.add(timedEntry))
-			calculateAverage();
-		
 		// track input speed
 		last = System.currentTimeMillis();
 	}
 
+	/** put the point in the ring, pushing out the oldest when full */
+	private void store(double value, long time) {
+
+		// push out oldest record, its slot becomes the newest
+		int index = 0;
+		if (count == values.length) {
+			index = head;
+			head = physical(1);
+			sum -= values[index];
+		} else {
+			index = physical(count);
+			count++;
+		}
+
+		values[index] = value;
+		times[index] = time;
+		inflections[index] = TimedEntry.ZERO;
+
+		// update stats
+		sum += value;
+		push(total++);
+
+		if (++sinceSum >= values.length)
+			resum();
+
+		updateStats();
+
+		for (int i = 0; i < statistics.length; i++)
+			statistics[i].add(value, time);
+	}
+
 	/**  */
 	public String getTitle() {
 		return name;
@@ -169,25 +672,20 @@ public class State {
 	/** */
 	public double[] getScaledData() {
 
-		double[] data = new double[list.size()];
-		TimedEntry entry = null;
-		for (int i = 0; i < list.size(); i++) {
+		double[] data = new double[count];
+		for (int i = 0; i < count; i++)
+			data[i] = scale(values[physical(i)]);
 
-			entry = list.get(i);
-			data[i] = scale(entry.getValueDouble());
-		}
 		return data;
 	}
 
 	/**  */
 	public double[] getScaledData(double min, double max) {
 
-		double[] data = new double[list.size()];
-		TimedEntry entry = null;
-		for (int i = 0; i < list.size(); i++) {
-			entry = list.get(i);
-			data[i] = scale(min, (float) entry.getValueDouble(), max);
-		}
+		double[] data = new double[count];
+		for (int i = 0; i < count; i++)
+			data[i] = scale(min, (float) values[physical(i)], max);
+
 		return data;
 	}
 
@@ -217,43 +715,92 @@ public class State {
 		return scale;
 	}
 
-	/** */
+	/** re-build all the stats from the points held */
 	protected void calculateAverage() {
 
-		TimedEntry entry = null;
-		double value = 0;
-		double sum = 0;
+		maxSize = 0;
+		minSize = 0;
 
-		// clear stats
-		min = Double.MAX_VALUE;
-		max = Double.MIN_VALUE;
+		for (long number = total - count; number < total; number++)
+			push(number);
 
-		for (int i = 0; i < list.size(); i++) {
+		resum();
+		updateStats();
+	}
 
-			entry = list.get(i);
-			value = entry.getValueDouble();
-			sum += value;
+	/** @return the array index holding the given point number */
+	private int slot(long number) {
+		return (int) (number % values.length);
+	}
 
-			if (value > max) {
-				max = value;
-				maxIndex = i;
-			}
-			if (value < min) {
-				min = value;
-				minIndex = i;
-			}
+	/**
+	 * Add the newest point to the max and min queues, dropping points that
+	 * have left the window from the front, and points that can no longer be
+	 * the max or min from the back. Equal values keep the oldest as the max
+	 * or min.
+	 */
+	private void push(long number) {
+
+		final long oldest = total - count;
+		final double value = values[slot(number)];
+
+		while (maxSize > 0 && maxQueue[maxHead] < oldest) {
+			maxHead = (maxHead + 1) % maxQueue.length;
+			maxSize--;
+		}
+		while (maxSize > 0 && values[slot(maxQueue[(maxHead + maxSize - 1) % maxQueue.length])] < value)
+			maxSize--;
+		maxQueue[(maxHead + maxSize) % maxQueue.length] = number;
+		maxSize++;
+
+		while (minSize > 0 && minQueue[minHead] < oldest) {
+			minHead = (minHead + 1) % minQueue.length;
+			minSize--;
+		}
+		while (minSize > 0 && values[slot(minQueue[(minHead + minSize - 1) % minQueue.length])] > value)
+			minSize--;
+		minQueue[(minHead + minSize) % minQueue.length] = number;
+		minSize++;
+	}
+
+	/** add up the points again */
+	private void resum() {
+
+		sum = 0;
+		for (int i = 0; i < count; i++)
+			sum += values[physical(i)];
+
+		sinceSum = 0;
+	}
+
+	/** read max, min and average from the queues and sum */
+	private void updateStats() {
+
+		if (count == 0) {
+			min = Double.MAX_VALUE;
+			max = Double.MIN_VALUE;
+			average = Double.NaN;
+			return;
 		}
 
-		average = sum / (list.size());
+		final long oldest = total - count;
+
+		max = values[slot(maxQueue[maxHead])];
+		maxIndex = (int) (maxQueue[maxHead] - oldest);
+
+		min = values[slot(minQueue[minHead])];
+		minIndex = (int) (minQueue[minHead] - oldest);
+
+		average = sum / count;
 	}
 
 	/** */
 	public TimedEntry getNewest() {
 
-		if (list.size() <= 1)
+		if (count <= 1)
 			return null;
 
-		return list.get(size() - 1);
+		return getIndex(count - 1);
 	}
 
 	/** */
@@ -274,32 +821,57 @@ public class State {
 
 	/** */
 	public TimedEntry getOldest() {
-		if (list.size() <= 1)
+		if (count <= 1)
 			return null;
-		return list.get(0);
+		return getIndex(0);
 	}
 
-	/***/
+	/** @return a copy of the i'th oldest point */
 	public TimedEntry getIndex(int i) {
-		return list.get(i);
+
+		if (i < 0 || i >= count)
+			throw new ArrayIndexOutOfBoundsException(i);
+
+		int index = physical(i);
+		if (inflections[index] == TimedEntry.ZERO)
+			return new TimedEntry(values[index], times[index]);
+
+		return new TimedEntry(values[index], times[index], inflections[index]);
 	}
 
 	/**  */
 	public Entry get(int i) {
-		return list.get(i);
+		return getIndex(i);
+	}
+
+	/** @return the value of the i'th oldest point */
+	public double getValue(int i) {
+		return values[physical(i)];
+	}
+
+	/** @return the time stamp of the i'th oldest point */
+	public long getTime(int i) {
+		return times[physical(i)];
+	}
+
+	/** @return true if the i'th oldest point is marked as an inflection */
+	public boolean isInflection(int i) {
+		return inflections[physical(i)] != TimedEntry.ZERO;
+	}
+
+	/** mark the i'th oldest point as an inflection in the given direction */
+	protected void setInflection(int i, short direction) {
+		inflections[physical(i)] = direction;
 	}
 
 	/** */
 	public int size() {
-		if (list != null)
-			return list.size();
-
-		return -1;
+		return count;
 	}
 
 	/**   */
 	public int capacity() {
-		return list.capacity();
+		return values.length;
 	}
 
 	/**  */
@@ -329,32 +901,30 @@ public class State {
 
 	/** */
 	public TimedEntry getMax() {
-		return list.get(maxIndex);
+		return getIndex(maxIndex);
 	}
 
 	/**	 */
 	public TimedEntry getMin() {
-		return list.get(minIndex);
+		return getIndex(minIndex);
 	}
 
 	/**  */
 	public int getMaxInt() {
 
-		if (list.isEmpty())
+		if (count == 0)
 			return 0;
 
-		TimedEntry entry = list.get(maxIndex);
-		return (int) entry.getValueDouble();
+		return (int) getValue(maxIndex);
 	}
 
 	/**  */
 	public int getMinInt() {
 
-		if (list.isEmpty())
+		if (count == 0)
 			return 0;
 
-		TimedEntry entry = list.get(minIndex);
-		return (int) entry.getValueDouble();
+		return (int) getValue(minIndex);
 	}
 
 	/**  */
@@ -375,7 +945,7 @@ public class State {
 	/**  */
 	public String getStats() {
 
-		if (list.isEmpty())
+		if (count == 0)
 			return "loading...";
 
 		TimedEntry oldest = getOldest();
@@ -384,18 +954,33 @@ public class State {
 		if (oldest == null || newest == null)
 			return null;
 
-		return name + " \t [" + list.size() + "]\t" + newest.getAge() + " - "
+		return name + " \t [" + count + "]\t" + newest.getAge() + " - "
 				+ oldest.getAge() + "\t\tmin = " + getMinValueString()
 				+ "\tavg = " + getAverageValueString() + "\tmax = "
 				+ getMaxValueString();
 	}
 
 	/** clear the state, but insert the current and average */
-	public void reset() {
-		TimedEntry avg = new TimedEntry(getAverageValueString());
-		TimedEntry now = new TimedEntry(getNewestValueString());
-		list.clear();
-		insert(avg);
-		insert(now);
+	public synchronized void reset() {
+		double avg = average;
+		double now = getNewestValue();
+		long time = System.currentTimeMillis();
+
+		beginWrite();
+		try {
+			head = 0;
+			count = 0;
+			total = 0;
+			maxSize = 0;
+			minSize = 0;
+			sum = 0;
+			sinceSum = 0;
+			for (int i = 0; i < statistics.length; i++)
+				statistics[i].clear();
+			insert(avg, time);
+			insert(now, time);
+		} finally {
+			endWrite();
+		}
 	}
 }
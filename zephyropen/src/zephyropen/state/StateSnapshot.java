@@ -0,0 +1,167 @@
+package zephyropen.state;
+
+import zephyropen.util.Utils;
+
+/**
+ * A consistent copy of a {@link State}'s points and stats, taken with
+ * {@link State#snapshot()}. Never changes, so the render thread can read it
+ * at its own pace while points keep arriving.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class StateSnapshot {
+
+	private final String name;
+	private final double[] values;
+	private final long[] times;
+	private final double min;
+	private final double max;
+	private final double average;
+	private final int minIndex;
+	private final int maxIndex;
+	private final Statistic[] statistics;
+
+	/** the values, times and statistics are kept, not copied, oldest first */
+	StateSnapshot(String name, double[] values, long[] times, double min, double max, double average, int minIndex,
+			int maxIndex, Statistic[] statistics) {
+		this.name = name;
+		this.values = values;
+		this.times = times;
+		this.min = min;
+		this.max = max;
+		this.average = average;
+		this.minIndex = minIndex;
+		this.maxIndex = maxIndex;
+		this.statistics = statistics;
+	}
+
+	/** @return the statistics kept by the state, do not change them */
+	public Statistic[] getStatistics() {
+		return statistics;
+	}
+
+	/** @return the named statistic, or null if not kept */
+	public Statistic getStatistic(String name) {
+		return State.find(statistics, name);
+	}
+
+	/** @return standard deviation of the points inserted, NaN if not kept */
+	public double getStandardDeviation() {
+		return State.getStandardDeviation(statistics);
+	}
+
+	/** @return the percentile, 0 to 100, of the points inserted, NaN if not kept */
+	public double getPercentile(double percentile) {
+		return State.getPercentile(statistics, percentile);
+	}
+
+	/** @return the moving average with the given half life, NaN if not kept */
+	public double getEwma(long halfLife) {
+		return State.getEwma(statistics, halfLife);
+	}
+
+	/**  */
+	public String getTitle() {
+		return name;
+	}
+
+	/** */
+	public int size() {
+		return values.length;
+	}
+
+	/** @return the value of the i'th oldest point */
+	public double getValue(int i) {
+		return values[i];
+	}
+
+	/** @return the time stamp of the i'th oldest point */
+	public long getTime(int i) {
+		return times[i];
+	}
+
+	/** @return the newest value, or 0 if empty */
+	public double getNewestValue() {
+
+		if (values.length == 0)
+			return 0.0;
+
+		return values[values.length - 1];
+	}
+
+	/** */
+	public double[] getScaledData() {
+
+		double[] data = new double[values.length];
+		for (int i = 0; i < values.length; i++)
+			data[i] = scale(values[i]);
+
+		return data;
+	}
+
+	/**  */
+	public double[] getScaledData(double min, double max) {
+
+		double[] data = new double[values.length];
+		for (int i = 0; i < values.length; i++)
+			data[i] = scale(min, values[i], max);
+
+		return data;
+	}
+
+	/** @return the value on a 0 to 100 scale between this snapshot's min and max */
+	public double scale(double value) {
+		return scale(min, value, max);
+	}
+
+	/** @return the value on a 0 to 100 scale between the given min and max */
+	public double scale(double min, double value, double max) {
+		double scale = (((value - min) / ((max - min) + 0.1)) * 100);
+
+		// restrict max and min values
+		if (scale < 0.0001)
+			return 0.0001;
+		if (scale > 99.99999)
+			return 99.99999;
+
+		return scale;
+	}
+
+	/**  */
+	public double getMinValue() {
+		return min;
+	}
+
+	/**  */
+	public double getMaxValue() {
+		return max;
+	}
+
+	/**  */
+	public double getAverage() {
+		return average;
+	}
+
+	/**  */
+	public int getMinInt() {
+
+		if (values.length == 0)
+			return 0;
+
+		return (int) values[minIndex];
+	}
+
+	/**  */
+	public int getMaxInt() {
+
+		if (values.length == 0)
+			return 0;
+
+		return (int) values[maxIndex];
+	}
+
+	/**  */
+	public String getAverageValueString() {
+		return Utils.formatFloat(average, State.PRECISION);
+	}
+}
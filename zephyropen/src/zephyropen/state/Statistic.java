@@ -0,0 +1,27 @@
+package zephyropen.state;
+
+/**
+ * A summary of a stream of points, updated as each point is added to a
+ * {@link State}, in memory that does not grow with the number of points.
+ * <p>
+ * Register with {@link State#addStatistic(Statistic)}. The State calls
+ * {@link #add(double, long)} while holding its lock, readers get copies from
+ * {@link State#getStatistics()} or a {@link StateSnapshot}.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public interface Statistic {
+
+	/** @return the name this statistic is looked up by */
+	public abstract String getName();
+
+	/** fold in a new point */
+	public abstract void add(double value, long time);
+
+	/** forget every point */
+	public abstract void clear();
+
+	/** @return an independent copy */
+	public abstract Statistic copy();
+
+}
@@ -0,0 +1,147 @@
+package zephyropen.state;
+
+/**
+ * A ring of fixed width time buckets, each holding the min, max, sum and count
+ * of the points that fell in it. Points are added as they arrive, the oldest
+ * bucket is dropped when a new one is opened on a full ring.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+class Tier {
+
+	/** bucket width in milliseconds */
+	private final long width;
+
+	private final long[] starts;
+
+	private final double[] mins;
+
+	private final double[] maxs;
+
+	private final double[] sums;
+
+	private final int[] counts;
+
+	/** physical index of the oldest bucket, and how many are held */
+	private int head = 0;
+
+	private int count = 0;
+
+	/**
+	 * @param width
+	 *            of each bucket in milliseconds
+	 * @param size
+	 *            is the most buckets kept
+	 */
+	Tier(long width, int size) {
+		this.width = width;
+		starts = new long[size];
+		mins = new double[size];
+		maxs = new double[size];
+		sums = new double[size];
+		counts = new int[size];
+	}
+
+	/** @return the array index of the i'th oldest bucket */
+	private int physical(int i) {
+		int index = head + i;
+		if (index >= starts.length)
+			index -= starts.length;
+		return index;
+	}
+
+	/** add a point to the bucket covering its time */
+	void add(double value, long time) {
+
+		final long start = time - (time % width);
+
+		if (count > 0) {
+
+			int newest = physical(count - 1);
+			if (start == starts[newest]) {
+				merge(newest, value);
+				return;
+			}
+
+			/** a late point, fold it into its bucket if we still hold it */
+			if (start < starts[newest]) {
+				for (int i = count - 2; i >= 0; i--) {
+					int index = physical(i);
+					if (starts[index] == start) {
+						merge(index, value);
+						return;
+					}
+					if (starts[index] < start)
+						return;
+				}
+				return;
+			}
+		}
+
+		/** open a new bucket, pushing out the oldest when full */
+		int index = 0;
+		if (count == starts.length) {
+			index = head;
+			head = physical(1);
+		} else {
+			index = physical(count);
+			count++;
+		}
+
+		starts[index] = start;
+		mins[index] = value;
+		maxs[index] = value;
+		sums[index] = value;
+		counts[index] = 1;
+	}
+
+	private void merge(int index, double value) {
+		if (value < mins[index])
+			mins[index] = value;
+		if (value > maxs[index])
+			maxs[index] = value;
+		sums[index] += value;
+		counts[index]++;
+	}
+
+	/** drop all buckets */
+	void clear() {
+		head = 0;
+		count = 0;
+	}
+
+	/** */
+	long getWidth() {
+		return width;
+	}
+
+	/** */
+	int size() {
+		return count;
+	}
+
+	/** @return start of the i'th oldest bucket */
+	long getStart(int i) {
+		return starts[physical(i)];
+	}
+
+	/** */
+	double getMin(int i) {
+		return mins[physical(i)];
+	}
+
+	/** */
+	double getMax(int i) {
+		return maxs[physical(i)];
+	}
+
+	/** */
+	double getSum(int i) {
+		return sums[physical(i)];
+	}
+
+	/** */
+	int getCount(int i) {
+		return counts[physical(i)];
+	}
+}
@@ -5,6 +5,8 @@ import zephyropen.util.Utils;
 
 /**
  * <p> Hold an Entry, and add a time stamping feature.  
+ * <p> The value is kept as a double, text is parsed once when the entry is 
+ * made and only formatted for display when first asked for.
  * <p>
  * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
  */
@@ -21,8 +23,13 @@ public class TimedEntry implements Entry {
 	/** creation time stamp */ 
 	private long timestamp = 0x0;
 	
-	/** most often called for as a string */ 
-	private String value = null;
+	/** the value, parsed once, NaN if the text given was not a number */ 
+	private double value = Double.NaN;
+	
+	/** text the value was given as, if any, and its display form once asked for */ 
+	private String text = null;
+	
+	private String formatted = null;
 	
 	/** is this an interesting data point */ 
 	private boolean inflection = false; 
@@ -35,9 +42,7 @@ public class TimedEntry implements Entry {
 	 * @param value
 	 */
 	public TimedEntry(String value) {
-		
-		this.value = value;
-		this.timestamp = System.currentTimeMillis();
+		this(value, System.currentTimeMillis());
 	}
 	
 	/**
@@ -45,9 +50,7 @@ public class TimedEntry implements Entry {
 	 * @param value
 	 */
 	public TimedEntry(String value, short direction) {
-		
-		this.value = value;
-		this.timestamp = System.currentTimeMillis();
+		this(value, System.currentTimeMillis());
 		
 		// we are interesting
 		this.inflection = true;
@@ -59,14 +62,7 @@ public class TimedEntry implements Entry {
 	 * @param value
 	 */
 	public TimedEntry(double value) {
-		try {
-
-			this.value = String.valueOf(value);
-			this.timestamp = System.currentTimeMillis();
-
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		this(value, System.currentTimeMillis());
 	}
 	
 	/**
@@ -74,36 +70,53 @@ public class TimedEntry implements Entry {
 	 * @param value
 	 */
 	public TimedEntry(double value, short direction) {
-		try {
-
-			this.value = String.valueOf(value);
-
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		this(value, System.currentTimeMillis(), direction);
+	}
+	
+	/**
+	 * 
+	 * @param value
+	 * @param time stamp 
+	 */
+	public TimedEntry(double value, long time) {
+		
+		this.value = value;
+		this.timestamp = time;
+	}
+	
+	/**
+	 * 
+	 * @param value
+	 * @param time stamp 
+	 * @param direction of the inflection 
+	 */
+	public TimedEntry(double value, long time, short direction) {
 		
-		this.timestamp = System.currentTimeMillis();
+		this.value = value;
+		this.timestamp = time;
 		
 		// we are interesting
 		this.inflection = true;
 		this.direction = direction;
 	}
 	
+	/**
+	 * 
+	 * @param data is the value as text, NaN if it is not a number 
+	 * @param time stamp 
+	 */
 	public TimedEntry(String data, long time) {
 
-		try {
-
-			this.value = String.valueOf(value);
-
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		
+		this.text = data;
 		this.timestamp = time;
 		
-		// we are interesting
-		//this.inflection = true;
-		//this.direction = direction;
+		if (data != null) {
+			try {
+				this.value = Double.parseDouble(data.trim());
+			} catch (NumberFormatException e) {
+				this.value = Double.NaN;
+			}
+		}
 	}
 
 	public short getInflection(){
@@ -131,16 +144,28 @@ public class TimedEntry implements Entry {
 		return timestamp;
 	}
 
+	/** @return the value cut to two decimal places, formatted on the first call only */
 	public String getValueString() {
-		return Utils.formatString(value, 2);
+		if (formatted == null)
+			formatted = Utils.formatString(getText(), 2);
+		
+		return formatted;
 	}
 
 	public double getValueDouble() {
-		return Double.parseDouble(value);
+		return value;
+	}
+	
+	/** @return the text the value was given as, or made from the number */
+	private String getText() {
+		if (text == null)
+			text = String.valueOf(value);
+		
+		return text;
 	}
 
 	public String toString() {
-		return "age: " + getAge() + "\tvalue: " + value;
+		return "age: " + getAge() + "\tvalue: " + getText();
 	}
 
 	public static String getTime(long time) {
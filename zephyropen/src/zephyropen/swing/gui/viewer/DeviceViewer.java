@@ -4,6 +4,7 @@ import zephyropen.api.API;
 import zephyropen.api.ApiFactory;
 import zephyropen.api.ZephyrOpen;
 import zephyropen.api.PrototypeFactory;
+import zephyropen.api.Subscription;
 import zephyropen.command.Command;
 import zephyropen.state.State;
 import zephyropen.util.DataLogger;
@@ -48,8 +49,8 @@ public class DeviceViewer implements API {
 		/** show window */
 		javax.swing.SwingUtilities.invokeLater(viewer.getFrame());
 		
-		/** register for messages */
-		ApiFactory.getReference().add(this);
+		/** register for messages, only this user's, skipped before parsing */
+		ApiFactory.getReference().add(this, new Subscription(deviceName, constants.get(ZephyrOpen.user), null));
 
 		/** loop forever, refreshing the display */
 		viewer.poll();
@@ -60,11 +61,7 @@ public class DeviceViewer implements API {
 
 		// constants.info("viewer exe: " + command.toString());
 
-		// not for us
-		if (!constants.get(ZephyrOpen.user).equals(command.get(ZephyrOpen.user))) {
-			// constants.error("wrong userName: " + command.get(ZephyrOpen.user), this);
-			return;
-		}
+		// only this user's commands are dispatched to us, see the subscription 
 		
 		// manage logging
 		if (constants.getBoolean(ZephyrOpen.loggingEnabled)) {
@@ -0,0 +1,242 @@
+package zephyropen.util;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import zephyropen.api.API;
+import zephyropen.api.ApiFactory;
+import zephyropen.api.PrototypeFactory;
+import zephyropen.api.Subscription;
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+import zephyropen.state.Aggregate;
+
+/**
+ * <p> Summaries of the devices on the bus, one window for each user and
+ * device.
+ *
+ * <p> Every <code>aggregateSlide</code> milliseconds an 'aggregate' command is
+ * sent for each device heard in the last <code>aggregateWindow</code>
+ * milliseconds, holding the count, min, max, mean and last of each of its
+ * prototype's fields, as <code>heartCount</code>, <code>heartMin</code> and so
+ * on. A slide equal to the window, the default, gives tumbling windows; a
+ * shorter slide gives sliding windows, rounded to a whole number of slides.
+ * Consumers that only need a summary subscribe to 'aggregate' instead of the
+ * raw traffic.
+ *
+ * <pre>
+ *   aggregateWindow=10000
+ *   aggregateSlide=2000
+ *   aggregateTypes=hxm,bioharness
+ * </pre>
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class AggregatorAPI implements API, Runnable {
+
+	/** framework configuration */
+	public static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	/** default window length */
+	public static final long DEFAULT_WINDOW = 10000;
+
+	/** summarised when aggregateTypes is not set */
+	private static final String DEFAULT_TYPES = PrototypeFactory.hxm + "," + PrototypeFactory.hrm + ","
+			+ PrototypeFactory.bioharness + "," + PrototypeFactory.polar;
+
+	/** suffixes of the summary tags */
+	public static final String COUNT = "Count";
+	public static final String MIN = "Min";
+	public static final String MAX = "Max";
+	public static final String MEAN = "Mean";
+	public static final String LAST = "Last";
+
+	/** a window for each type, user and device, lock it to add, publish or remove */
+	private Hashtable<String, Window> windows = new Hashtable<String, Window>();
+
+	private long window = DEFAULT_WINDOW;
+	private long slide = DEFAULT_WINDOW;
+	private int panes = 1;
+
+	private long last = System.currentTimeMillis();
+
+	/** one device's window and the command it is sent in */
+	private static class Window {
+
+		final Aggregate aggregate;
+		final Command command = new Command(PrototypeFactory.aggregate);
+
+		Window(String type, String user, String deviceName, long window, int panes) {
+
+			aggregate = new Aggregate(PrototypeFactory.create(type), panes);
+
+			command.add(ZephyrOpen.kind, type);
+			command.add(PrototypeFactory.window, String.valueOf(window));
+			if (user != null)
+				command.add(ZephyrOpen.user, user);
+			if (deviceName != null)
+				command.add(ZephyrOpen.deviceName, deviceName);
+		}
+	}
+
+	/** Listen to the configured device types, start sending summaries */
+	public AggregatorAPI() {
+
+		int millis = constants.getInteger(ZephyrOpen.aggregateWindow);
+		if (millis > 0)
+			window = millis;
+
+		slide = window;
+		millis = constants.getInteger(ZephyrOpen.aggregateSlide);
+		if (millis > 0 && millis < window)
+			slide = millis;
+
+		panes = (int) Math.max(1, window / slide);
+		window = slide * panes;
+
+		String types = constants.get(ZephyrOpen.aggregateTypes);
+		if (types == null)
+			types = DEFAULT_TYPES;
+
+		ApiFactory apiFactory = ApiFactory.getReference();
+		String[] list = types.split(",");
+		for (int i = 0; i < list.length; i++)
+			apiFactory.add(this, new Subscription(list[i].trim(), null, null));
+
+		constants.info("aggregating [" + types + "] window: " + window + " slide: " + slide, this);
+
+		Thread ticker = new Thread(this, "aggregator");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/** add the command's fields to its device's window */
+	public void execute(Command command) {
+
+		last = System.currentTimeMillis();
+
+		/** Bioharness R to R packets, their tags and beat counter aren't the device's readings */
+		if (PrototypeFactory.rr.equals(command.get(ZephyrOpen.kind)))
+			return;
+
+		final String type = command.getType();
+		final String user = command.get(ZephyrOpen.user);
+		final String deviceName = command.get(ZephyrOpen.deviceName);
+		final String key = type + '/' + user + '/' + deviceName;
+
+		/** one lock with the ticker, so it can't drop the window between finding and filling it */
+		synchronized (windows) {
+
+			Window target = windows.get(key);
+			if (target == null) {
+				target = new Window(type, user, deviceName, window, panes);
+				windows.put(key, target);
+			}
+
+			final String[] fields = target.aggregate.getFields();
+			for (int i = 0; i < fields.length; i++) {
+
+				String value = command.get(fields[i]);
+				if (value == null)
+					continue;
+
+				try {
+					target.aggregate.add(i, Double.parseDouble(value));
+				} catch (NumberFormatException e) {
+					// not a number, nothing to summarise
+				}
+			}
+		}
+	}
+
+	/** send the summaries on every slide boundary */
+	public void run() {
+		while (true) {
+
+			Utils.delay(slide - (System.currentTimeMillis() % slide));
+
+			Vector<String> keys = new Vector<String>(windows.keySet());
+			for (int i = 0; i < keys.size(); i++) {
+
+				Command summary = null;
+				synchronized (windows) {
+
+					Window target = windows.get(keys.get(i));
+					if (target == null)
+						continue;
+
+					/** nothing heard for a whole window, forget the device */
+					if (target.aggregate.getCount() == 0) {
+						windows.remove(keys.get(i));
+						continue;
+					}
+
+					summary = summarise(target);
+					target.aggregate.advance();
+				}
+
+				/** sending can block, don't hold up the devices' commands */
+				summary.send();
+			}
+		}
+	}
+
+	/** @return a copy of the window's command, filled with its summary */
+	private Command summarise(Window target) {
+
+		final Aggregate aggregate = target.aggregate;
+		final Command command = target.command;
+		final String[] fields = aggregate.getFields();
+
+		for (int i = 0; i < fields.length; i++) {
+
+			final int count = aggregate.getCount(i);
+			command.add(fields[i] + COUNT, String.valueOf(count));
+
+			if (count == 0) {
+				command.delete(fields[i] + MIN);
+				command.delete(fields[i] + MAX);
+				command.delete(fields[i] + MEAN);
+				command.delete(fields[i] + LAST);
+				continue;
+			}
+
+			command.add(fields[i] + MIN, Utils.formatFloat(aggregate.getMin(i), ZephyrOpen.PRECISION));
+			command.add(fields[i] + MAX, Utils.formatFloat(aggregate.getMax(i), ZephyrOpen.PRECISION));
+			command.add(fields[i] + MEAN, Utils.formatFloat(aggregate.getMean(i), ZephyrOpen.PRECISION));
+			command.add(fields[i] + LAST, Utils.formatFloat(aggregate.getLast(i), ZephyrOpen.PRECISION));
+		}
+
+		return new Command(command);
+	}
+
+	@Override
+	public long getDelta() {
+		return System.currentTimeMillis() - last;
+	}
+
+	@Override
+	public String getDeviceName() {
+		return PrototypeFactory.aggregate;
+	}
+
+	@Override
+	public String getAddress() {
+		return constants.get(ZephyrOpen.address);
+	}
+
+	/** run the aggregator, the user name is the only argument */
+	public static void main(String[] args) {
+
+		if (args.length == 1) {
+
+			// configure the framework with properties file
+			constants.init(args[0], PrototypeFactory.aggregate);
+
+			new AggregatorAPI();
+
+			/** g'night, wait on input */
+			Utils.delay(Long.MAX_VALUE);
+		}
+	}
+}
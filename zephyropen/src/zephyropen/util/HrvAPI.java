@@ -0,0 +1,146 @@
+package zephyropen.util;
+
+import java.util.Hashtable;
+
+import zephyropen.api.API;
+import zephyropen.api.ApiFactory;
+import zephyropen.api.PrototypeFactory;
+import zephyropen.api.Subscription;
+import zephyropen.api.ZephyrOpen;
+import zephyropen.command.Command;
+import zephyropen.device.zephyr.RtoRDecoder;
+import zephyropen.state.HeartRateVariability;
+
+/**
+ * <p> Heart rate variability for every HXM, HRM and Bioharness on the bus.
+ *
+ * <p> Listens to the devices' rr tags, keeps a {@link HeartRateVariability}
+ * for each device, and sends an 'hrv' command with the device's name and user
+ * at most once every {@link #PUBLISH_PERIOD} milliseconds for viewers and
+ * loggers to subscribe to.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class HrvAPI implements API {
+
+	/** framework configuration */
+	public static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	/** least time between hrv commands for one device */
+	public static final long PUBLISH_PERIOD = 1000;
+
+	/** the devices that send rr tags */
+	private static final String[] SOURCES = { PrototypeFactory.hxm, PrototypeFactory.hrm, PrototypeFactory.bioharness };
+
+	/** state kept for each device heard */
+	private Hashtable<String, Source> sources = new Hashtable<String, Source>();
+
+	private long last = System.currentTimeMillis();
+
+	/** one device's decoder, intervals and output */
+	private static class Source {
+
+		final RtoRDecoder decoder = new RtoRDecoder();
+		final HeartRateVariability hrv = new HeartRateVariability();
+		final Command command = new Command(PrototypeFactory.hrv);
+		long published = 0;
+
+		Source(String deviceName, String user) {
+			command.add(ZephyrOpen.deviceName, deviceName);
+			if (user != null)
+				command.add(ZephyrOpen.user, user);
+		}
+	}
+
+	/** Listen to every device that sends rr tags */
+	public HrvAPI() {
+
+		ApiFactory apiFactory = ApiFactory.getReference();
+		for (int i = 0; i < SOURCES.length; i++)
+			apiFactory.add(this, new Subscription(SOURCES[i], null, null));
+
+		constants.info("hrv listening on hxm, hrm and bioharness", this);
+	}
+
+	/** add the new beats, publish if it has been long enough */
+	public void execute(Command command) {
+
+		last = System.currentTimeMillis();
+
+		String deviceName = command.get(ZephyrOpen.deviceName);
+		if (deviceName == null)
+			deviceName = command.getType();
+
+		Source source = sources.get(deviceName);
+		if (source == null) {
+			source = new Source(deviceName, command.get(ZephyrOpen.user));
+			sources.put(deviceName, source);
+		}
+
+		if (source.decoder.decode(command, source.hrv) == 0)
+			return;
+
+		if (last - source.published < PUBLISH_PERIOD)
+			return;
+
+		source.published = last;
+		publish(source);
+	}
+
+	/** send the device's current hrv */
+	private void publish(Source source) {
+
+		final HeartRateVariability hrv = source.hrv;
+		if (Double.isNaN(hrv.getRmssd()))
+			return;
+
+		final Command command = source.command;
+		command.add(PrototypeFactory.meanrr, Utils.formatFloat(hrv.getMeanRr(), ZephyrOpen.PRECISION));
+		command.add(PrototypeFactory.rmssd, Utils.formatFloat(hrv.getRmssd(), ZephyrOpen.PRECISION));
+		command.add(PrototypeFactory.sdnn, Utils.formatFloat(hrv.getSdnn(), ZephyrOpen.PRECISION));
+		command.add(PrototypeFactory.pnn50, Utils.formatFloat(hrv.getPnn50(), ZephyrOpen.PRECISION));
+
+		final double lf = hrv.getLf();
+		if (Double.isNaN(lf)) {
+			command.delete(PrototypeFactory.lf);
+			command.delete(PrototypeFactory.hf);
+			command.delete(PrototypeFactory.lfhf);
+		} else {
+			command.add(PrototypeFactory.lf, Utils.formatFloat(lf, ZephyrOpen.PRECISION));
+			command.add(PrototypeFactory.hf, Utils.formatFloat(hrv.getHf(), ZephyrOpen.PRECISION));
+			command.add(PrototypeFactory.lfhf, Utils.formatFloat(hrv.getLfHf(), ZephyrOpen.PRECISION));
+		}
+
+		command.send();
+	}
+
+	@Override
+	public long getDelta() {
+		return System.currentTimeMillis() - last;
+	}
+
+	@Override
+	public String getDeviceName() {
+		return PrototypeFactory.hrv;
+	}
+
+	@Override
+	public String getAddress() {
+		return constants.get(ZephyrOpen.address);
+	}
+
+	/** run the hrv service, the user name is the only argument */
+	public static void main(String[] args) {
+
+		if (args.length == 1) {
+
+			// configure the framework with properties file
+			constants.init(args[0], PrototypeFactory.hrv);
+
+			new HrvAPI();
+
+			/** g'night, wait on input */
+			Utils.delay(Long.MAX_VALUE);
+		}
+	}
+}
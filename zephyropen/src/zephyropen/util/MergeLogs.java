@@ -13,7 +13,7 @@ import zephyropen.api.ZephyrOpen;
 import zephyropen.command.Command;
 import zephyropen.state.FilterFactory;
 import zephyropen.xml.Parser;
-import zephyropen.xml.XMLParser;
+import zephyropen.xml.ParserFactory;
 
 /**
  * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
@@ -139,7 +139,7 @@ public class MergeLogs {
 	public void readXML(File file) {
 
 		/** Basic XML parser */
-		Parser xmlParser = new XMLParser();
+		Parser xmlParser = ParserFactory.create();
 
 		constants.info("opening: " + file.getName());
 
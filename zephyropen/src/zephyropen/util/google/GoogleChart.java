@@ -7,6 +7,7 @@ import javax.swing.JLabel;
 
 import zephyropen.api.ApiFactory;
 import zephyropen.api.ZephyrOpen;
+import zephyropen.state.Bucket;
 import zephyropen.state.State;
 import zephyropen.state.TimedEntry;
 
@@ -92,6 +93,16 @@ public abstract class GoogleChart extends JLabel {
 		return state;
 	}
 	
+	/**
+	 * Read back a span of this chart's data, see
+	 * {@link State#getRange(long, long, int)}
+	 * 
+	 * @return at most the given number of buckets, oldest first
+	 */
+	public Bucket[] getHistory(long from, long to, int points) {
+		return state.getRange(from, to, points);
+	}
+
 	/** @return the title for this graph */
 	public String getTitle(){
 		return title;
@@ -1,6 +1,11 @@
 package zephyropen.util.google;
 
+import java.util.Vector;
+
+import zephyropen.api.ZephyrOpen;
+import zephyropen.state.Bucket;
 import zephyropen.state.State;
+import zephyropen.state.StateSnapshot;
 
 import com.googlecode.charts4j.AxisLabelsFactory;
 import com.googlecode.charts4j.Shape;
@@ -10,6 +15,7 @@ import com.googlecode.charts4j.DataUtil;
 import com.googlecode.charts4j.GCharts;
 import com.googlecode.charts4j.Line;
 import com.googlecode.charts4j.LineChart;
+import com.googlecode.charts4j.LineStyle;
 import com.googlecode.charts4j.Plots;
 
 /**
@@ -32,14 +38,94 @@ public class GoogleLineGraph extends GoogleChart {
     /** default line colors */
     protected static Color averageColor = Color.BLUE;
 
+    protected static Color overlayColor = Color.GRAY;
+
     protected Color dataColor = Color.RED;
 
+    /** draw the 5th and 95th percentiles and the one minute moving average */
+    protected boolean overlay = false;
+
     public GoogleLineGraph(final String title, final String units, final Color color) {
     	
     	this.title = title;
     	this.state = new State(title);
+    	this.state.keepHistory();
         this.dataColor = color;
         this.units = units;
+        
+        setOverlay(constants.getBoolean(ZephyrOpen.statsOverlay));
+    }
+
+    /** @param enable draws the statistics over the data, and starts keeping them */
+    public void setOverlay(final boolean enable) {
+    	
+    	if (enable)
+    		state.keepStatistics();
+    	
+    	overlay = enable;
+    }
+
+    /** add a flat line at the given value, unless it is not kept yet */
+    private static void addLevel(final Vector<Line> lines, final StateSnapshot snapshot, final double value, final Color color) {
+    	
+    	if (Double.isNaN(value))
+    		return;
+    	
+    	final double level = snapshot.scale(value);
+    	final Line line = Plots.newLine(new Data(level, level));
+    	line.setColor(color);
+    	line.setLineStyle(LineStyle.newLineStyle(1, 4, 2));
+    	lines.add(line);
+    }
+
+    /**
+     * @return a URL for a graph of the mean, min and max over the given span of
+     *         the session, one point per pixel at most
+     */
+    public String getHistoryURLString(final int x, final int y, final long from, final long to) {
+
+        try {
+
+            final Bucket[] buckets = getHistory(from, to, x);
+            if (buckets.length == 0)
+                return null;
+
+            final double[] means = new double[buckets.length];
+            final double[] mins = new double[buckets.length];
+            final double[] maxs = new double[buckets.length];
+
+            double low = Double.MAX_VALUE;
+            double high = -Double.MAX_VALUE;
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i].getMin() < low)
+                    low = buckets[i].getMin();
+                if (buckets[i].getMax() > high)
+                    high = buckets[i].getMax();
+            }
+
+            for (int i = 0; i < buckets.length; i++) {
+                means[i] = state.scale(low, buckets[i].getMean(), high);
+                mins[i] = state.scale(low, buckets[i].getMin(), high);
+                maxs[i] = state.scale(low, buckets[i].getMax(), high);
+            }
+
+            final Line meanLine = Plots.newLine(Data.newData(means));
+            meanLine.setColor(dataColor);
+            final Line minLine = Plots.newLine(Data.newData(mins));
+            minLine.setColor(Color.GRAY);
+            final Line maxLine = Plots.newLine(Data.newData(maxs));
+            maxLine.setColor(Color.GRAY);
+
+            final LineChart chart = GCharts.newLineChart(new Line[] { minLine, maxLine, meanLine });
+            chart.setSize(x, y);
+            chart.addYAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels((int) low, (int) high));
+            chart.setGrid(5, 20, 3, 2);
+
+            return chart.toURLString();
+
+        } catch (final Exception e) {
+            return null;
+        }
     }
     
     /** @return construct a URL that can be used to display this graph */
@@ -48,25 +134,33 @@ public class GoogleLineGraph extends GoogleChart {
 
         try {
         
-            final Line valuesLine = Plots.newLine(DataUtil.scale(state.getScaledData()));
+            // one consistent copy, points keep arriving while we draw
+            final StateSnapshot snapshot = state.snapshot();
+            final Line valuesLine = Plots.newLine(DataUtil.scale(snapshot.getScaledData()));
             valuesLine.setColor(dataColor);
 
             // scaled data
-            final int averageValue = (int) state.scale(state.getAverage());
+            final int averageValue = (int) snapshot.scale(snapshot.getAverage());
             final Line avgLine = Plots.newLine(new Data(averageValue, averageValue));
             avgLine.setColor(averageColor);
 
             // put lines on the graph 
-            final Line[] lines = new Line[2];
-            lines[0] = valuesLine;
-            lines[1] = avgLine;
+            final Vector<Line> lines = new Vector<Line>();
+            lines.add(valuesLine);
+            lines.add(avgLine);
+            
+            if (overlay) {
+                addLevel(lines, snapshot, snapshot.getPercentile(5), overlayColor);
+                addLevel(lines, snapshot, snapshot.getPercentile(95), overlayColor);
+                addLevel(lines, snapshot, snapshot.getEwma(ZephyrOpen.ONE_MINUTE), dataColor);
+            }
          
             // new chart 
             final LineChart chart = GCharts.newLineChart(lines);
 
             // set the size 
             chart.setSize(x, y);
-            chart.addYAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels(state.getMinInt(), state.getMaxInt()));
+            chart.addYAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels(snapshot.getMinInt(), snapshot.getMaxInt()));
 
         //    final String titleText = title.toUpperCase() + " = " 
         //    + (state.getNewest()).getValueString() + " " + units + "   " + " (" + state.size() + ") "
@@ -95,7 +189,8 @@ public class GoogleLineGraph extends GoogleChart {
 	public String getURLString(int x, int y, String title) {
         try {
         
-            Line valuesLine = Plots.newLine(DataUtil.scale(state.getScaledData()));
+            final StateSnapshot snapshot = state.snapshot();
+            Line valuesLine = Plots.newLine(DataUtil.scale(snapshot.getScaledData()));
             valuesLine.setColor(dataColor);
      
             /*  
@@ -130,15 +225,15 @@ public class GoogleLineGraph extends GoogleChart {
            
             //  valuesLine.addShapeMarker(Shape.HORIZONTAL_LINE, Color.BLUE, 1, 3);
             
-            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 1, (state.size()/2));
-            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 1, (state.size()/4));
-            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 1, ((state.size()/2) + (state.size()/4)));
+            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 1, (snapshot.size()/2));
+            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 1, (snapshot.size()/4));
+            valuesLine.addShapeMarker(Shape.VERTICAL_LINE_FULL, Color.BLACK, 1, ((snapshot.size()/2) + (snapshot.size()/4)));
             
             LineChart chart = GCharts.newLineChart(new Line[] {valuesLine}); // , redLine, orangeLine});
 
             // set the size 
             chart.setSize(x, y);
-            chart.addYAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels(state.getMinInt(), state.getMaxInt()));
+            chart.addYAxisLabels(AxisLabelsFactory.newNumericRangeAxisLabels(snapshot.getMinInt(), snapshot.getMaxInt()));
 
             chart.setTitle(title);
 
@@ -44,11 +44,12 @@ public class GoogleMeter extends GoogleChart {
     @Override
     public String getURLString(final int x, final int y) {
 
-        String value = Utils.formatFloat(state.getAverage(), ZephyrOpen.PRECISION);
+        final double average = state.snapshot().getAverage();
+        String value = Utils.formatFloat(average, ZephyrOpen.PRECISION);
 
         try {
 
-            GoogleOMeter chart = GCharts.newGoogleOMeter(state.getAverage(), "Fast", "", Color.newColor("1148D4"), Color.newColor("5766DE"), Color
+            GoogleOMeter chart = GCharts.newGoogleOMeter(average, "Fast", "", Color.newColor("1148D4"), Color.newColor("5766DE"), Color
                     .newColor("DB3270"));
 
             //	 , Color.newColor("D41111")); );
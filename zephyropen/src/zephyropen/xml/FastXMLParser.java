@@ -0,0 +1,304 @@
+package zephyropen.xml;
+
+import java.io.FileReader;
+import java.io.LineNumberReader;
+import java.nio.charset.Charset;
+
+import zephyropen.command.Command;
+import zephyropen.xml.Parser;
+
+/**
+ * Single pass XML Parser implementation.
+ * <p/>
+ * Walks the packet once, tracking offsets into the string rather than cutting
+ * the remaining xml down after each element, and fills the command as the
+ * elements are found. Only the element names and values are copied out.
+ * <p/>
+ * Accepts the same flat packets as {@link XMLParser}:
+ * <code>&lt;type&gt;&lt;tag&gt;value&lt;/tag&gt;...&lt;/type&gt;</code>
+ * <p/>
+ * Select it with <code>parser=fast</code> in the properties file.
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public final class FastXMLParser implements Parser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Constructs the parser with zero parameters.
+	 */
+	public FastXMLParser() {
+	}
+
+	/**
+	 * Parses the specified xml string and fills the specified command with
+	 * the name/value pairs of each element.
+	 *
+	 * @param xml
+	 *            contains the xml-formatted string to parse
+	 * @return a command filled with the element values
+	 */
+	public Command parse(String xml) {
+
+		if (xml == null || xml.equals(""))
+			return null;
+
+		// not xml, make a default, no-name command
+		if (xml.charAt(0) != '<')
+			return new Command();
+
+		// find the outer most tag, the '<type>' of xml command
+		int index = xml.indexOf('>');
+		if (index < 0)
+			return new Command();
+
+		Command command = new Command(xml.substring(1, index));
+
+		// skip over the outer tags
+		index++;
+		final int end = xml.lastIndexOf("</");
+
+		while (index < end) {
+
+			// element must start here, stop on anything else
+			if (xml.charAt(index) != '<')
+				break;
+
+			final int nameEnd = xml.indexOf('>', index);
+			if (nameEnd < 0 || nameEnd > end)
+				break;
+
+			final int nameStart = index + 1;
+			final int nameLength = nameEnd - nameStart;
+
+			// find the matching close tag
+			final int close = findEndTag(xml, nameStart, nameLength, nameEnd + 1, end);
+			if (close < 0)
+				break;
+
+			/* add the name/value pair to the command */
+			command.add(xml.substring(nameStart, nameEnd), xml.substring(nameEnd + 1, close));
+
+			/* step over the '</tag>' */
+			index = close + nameLength + 3;
+		}
+
+		/* return the filled command */
+		return command;
+	}
+
+	/**
+	 * Parses the xml directly from the given bytes, only the element names and
+	 * values are decoded into strings. The markup characters are plain ascii
+	 * and can never appear inside a multi-byte utf-8 character, so the scan is
+	 * done on the raw bytes.
+	 *
+	 * @param data
+	 *            holds the utf-8 encoded xml
+	 * @param offset
+	 *            of the first byte to parse
+	 * @param length
+	 *            of the xml in bytes
+	 * @return a command filled with the element values
+	 */
+	public Command parse(byte[] data, int offset, int length) {
+
+		// ignore white space and padding, like String.trim()
+		int start = offset;
+		int stop = offset + length;
+		while (start < stop && (data[start] & 0xFF) <= ' ')
+			start++;
+		while (stop > start && (data[stop - 1] & 0xFF) <= ' ')
+			stop--;
+
+		if (start == stop)
+			return null;
+
+		// not xml, make a default, no-name command
+		if (data[start] != '<')
+			return new Command();
+
+		// find the outer most tag, the '<type>' of xml command
+		int index = indexOf(data, '>', start, stop);
+		if (index < 0)
+			return new Command();
+
+		Command command = new Command(decode(data, start + 1, index));
+
+		// skip over the outer tags
+		index++;
+		final int end = lastIndexOfClose(data, start, stop);
+
+		while (index < end) {
+
+			// element must start here, stop on anything else
+			if (data[index] != '<')
+				break;
+
+			final int nameEnd = indexOf(data, '>', index, stop);
+			if (nameEnd < 0 || nameEnd > end)
+				break;
+
+			final int nameStart = index + 1;
+			final int nameLength = nameEnd - nameStart;
+
+			// find the matching close tag
+			final int close = findEndTag(data, nameStart, nameLength, nameEnd + 1, end, stop);
+			if (close < 0)
+				break;
+
+			/* add the name/value pair to the command */
+			command.add(decode(data, nameStart, nameEnd), decode(data, nameEnd + 1, close));
+
+			/* step over the '</tag>' */
+			index = close + nameLength + 3;
+		}
+
+		/* return the filled command */
+		return command;
+	}
+
+	/** @return the string held in bytes from start up to, not including, end */
+	private static String decode(byte[] data, int start, int end) {
+		return new String(data, start, end - start, UTF8);
+	}
+
+	/** @return the index of the first c at or after from, or -1 */
+	private static int indexOf(byte[] data, char c, int from, int stop) {
+
+		for (int i = from; i < stop; i++)
+			if (data[i] == c)
+				return i;
+
+		return -1;
+	}
+
+	/** @return the index of the last '&lt;/' in the region, or -1 */
+	private static int lastIndexOfClose(byte[] data, int start, int stop) {
+
+		for (int i = stop - 2; i >= start; i--)
+			if (data[i] == '<' && data[i + 1] == '/')
+				return i;
+
+		return -1;
+	}
+
+	/**
+	 * @return the index of the &lt;/tag&gt; whose name is the given region of
+	 *         the data, or -1 if not found before the limit
+	 */
+	private static int findEndTag(byte[] data, int nameStart, int nameLength, int from, int limit, int stop) {
+
+		for (int close = from; close < limit; close++) {
+
+			if (data[close] != '<' || data[close + 1] != '/')
+				continue;
+
+			final int tail = close + 2 + nameLength;
+			if (tail < stop && data[tail] == '>' && regionMatches(data, close + 2, nameStart, nameLength))
+				return close;
+		}
+
+		return -1;
+	}
+
+	/** @return true if both regions of the data hold the same bytes */
+	private static boolean regionMatches(byte[] data, int a, int b, int length) {
+
+		for (int i = 0; i < length; i++)
+			if (data[a + i] != data[b + i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @return the index of the &lt;/tag&gt; whose name is the given region of
+	 *         the xml, or -1 if not found before the limit
+	 */
+	private static int findEndTag(String xml, int nameStart, int nameLength, int from, int limit) {
+
+		int close = xml.indexOf("</", from);
+		while (close >= 0 && close < limit) {
+
+			final int tail = close + 2 + nameLength;
+			if (tail < xml.length() && xml.charAt(tail) == '>'
+					&& xml.regionMatches(close + 2, xml, nameStart, nameLength))
+				return close;
+
+			close = xml.indexOf("</", close + 2);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Check this parser against the {@link XMLParser} using recorded xml log
+	 * files. Every line is parsed by both, and any difference is shown.
+	 *
+	 * {@code java zephyropen.xml.FastXMLParser brad/log/hxm.xml ...}
+	 *
+	 * @param args
+	 *            are the log files to read
+	 */
+	public static void main(String[] args) throws Exception {
+
+		Parser reference = new XMLParser();
+		Parser fast = new FastXMLParser();
+
+		long lines = 0;
+		long errors = 0;
+		long referenceTime = 0;
+		long fastTime = 0;
+		long bytesTime = 0;
+
+		for (int i = 0; i < args.length; i++) {
+
+			LineNumberReader reader = new LineNumberReader(new FileReader(args[i]));
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+
+				lines++;
+
+				long start = System.nanoTime();
+				Command expected = reference.parse(line);
+				referenceTime += System.nanoTime() - start;
+
+				start = System.nanoTime();
+				Command actual = fast.parse(line);
+				fastTime += System.nanoTime() - start;
+
+				byte[] packet = line.getBytes(UTF8);
+				start = System.nanoTime();
+				Command bytes = fast.parse(packet, 0, packet.length);
+				bytesTime += System.nanoTime() - start;
+
+				if (!same(expected, actual) || !same(expected, bytes)) {
+					errors++;
+					System.err.println(args[i] + " [" + reader.getLineNumber() + "] " + line);
+					System.err.println("\t xml   : " + (expected == null ? null : expected.list()));
+					System.err.println("\t fast  : " + (actual == null ? null : actual.list()));
+					System.err.println("\t bytes : " + (bytes == null ? null : bytes.list()));
+				}
+			}
+			reader.close();
+		}
+
+		System.out.println("lines : " + lines + " mismatched : " + errors);
+		System.out.println("xml ms: " + referenceTime / 1000000 + " fast ms: " + fastTime / 1000000
+				+ " bytes ms: " + bytesTime / 1000000);
+	}
+
+	/** @return true if both commands hold the same type and elements */
+	private static boolean same(Command a, Command b) {
+
+		if (a == null || b == null)
+			return a == b;
+
+		if (a.getType() == null ? b.getType() != null : !a.getType().equals(b.getType()))
+			return false;
+
+		return a.list().equals(b.list());
+	}
+}
@@ -19,6 +19,17 @@ public interface Parser {
     */
    public Command parse(String xml); 
 
+   /**
+    * Parses the xml held in a region of a byte array, such as a received
+    * packet, without the caller first copying it into a string.
+    * Leading and trailing whitespace is ignored.
+    * @param data holds the utf-8 encoded xml
+    * @param offset of the first byte to parse
+    * @param length of the xml in bytes
+    * @return a command filled with the element values
+    */
+   public Command parse(byte[] data, int offset, int length);
+
 }
 
 
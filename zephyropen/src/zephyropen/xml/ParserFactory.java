@@ -0,0 +1,39 @@
+package zephyropen.xml;
+
+import zephyropen.api.ZephyrOpen;
+import zephyropen.xml.Parser;
+
+/**
+ * A factory to create xml parsers.
+ * <p>
+ * Set <code>parser=fast</code> in the properties file to use the single pass
+ * parser, the default is the original {@link XMLParser}
+ *
+ * @author <a href="mailto:brad.zdanivsky@gmail.com">Brad Zdanivsky</a>
+ */
+public class ParserFactory {
+
+	/** parser types, the value of the 'parser' property */
+	public static final String xml = "xml";
+	public static final String fast = "fast";
+
+	private static ZephyrOpen constants = ZephyrOpen.getReference();
+
+	private ParserFactory() {
+	}
+
+	/**
+	 * use props file to choose parser type
+	 *
+	 * @return the specified parser
+	 */
+	public static Parser create() {
+
+		String parserType = constants.get(ZephyrOpen.parser);
+
+		if (fast.equals(parserType))
+			return new FastXMLParser();
+
+		return new XMLParser();
+	}
+}
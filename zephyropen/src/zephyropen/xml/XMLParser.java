@@ -1,5 +1,7 @@
 package zephyropen.xml;
 
+import java.nio.charset.Charset;
+
 import zephyropen.command.Command;
 import zephyropen.xml.Parser;
 
@@ -13,6 +15,8 @@ import zephyropen.xml.Parser;
  */
 public final class XMLParser implements Parser {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     /**
      * Constructs the parser with zero parameters.
      */
@@ -79,6 +83,21 @@ public final class XMLParser implements Parser {
         return command;
     }
 
+    /**
+     * Decodes the given bytes to a string and parses that
+     * 
+     * @param data
+     *            holds the utf-8 encoded xml
+     * @param offset
+     *            of the first byte to parse
+     * @param length
+     *            of the xml in bytes
+     * @return a command filled with the element values
+     */
+    public Command parse(byte[] data, int offset, int length) {
+        return parse(new String(data, offset, length, UTF8).trim());
+    }
+
     /**
      * Parses and returns the name of the first element contained in the specified xml
      * string.